@@ -0,0 +1,303 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH benchmarks of whole Gitlet commands, each run in-process through
+ *  Main.run on a repository built by RepoGenerator.  Commands work on
+ *  the current directory, so each fork builds its repository there;
+ *  to guard against wiping the wrong directory, that directory must
+ *  hold a file named MARKER.  "make bench" in proj3 sets this up and
+ *  writes the results as JSON to benchmarks/results.json.
+ *
+ *  Remotes live in temporary directories: "behind" holds the generated
+ *  history and "ahead" a copy with EXTRA more commits, which is also
+ *  where the working repository is left.  push sends those commits to
+ *  a fresh copy of "behind"; fetch starts from "behind" and fetches
+ *  them from "ahead".
+ *  @author Laiming Huang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CommandBenchmarks {
+
+    /** File that must be in the current directory. */
+    static final String MARKER = ".gitlet-bench";
+    /** Commits the working repository has beyond "behind". */
+    static final int EXTRA = 10;
+
+    /** Number of files. */
+    @Param({ "100", "1000" })
+    int files;
+    /** Approximate size of each file. */
+    @Param({ "4096" })
+    int size;
+    /** Commits on master. */
+    @Param({ "100" })
+    int depth;
+    /** Other branches. */
+    @Param({ "4" })
+    int branches;
+
+    /** The working directory. */
+    private Path _work;
+    /** Temporary directory holding the snapshots and remotes. */
+    private Path _temp;
+    /** Copy of the working directory as generated. */
+    private Path _pristine;
+    /** The repository before the last EXTRA commits. */
+    private Path _behind;
+    /** The remote push sends to. */
+    private Path _remote;
+    /** Files changed before each add or commit. */
+    private List<String> _changed;
+    /** Counter making each change new. */
+    private int _version;
+    /** Branch the next checkout goes to. */
+    private String _next;
+    /** Standard output, while it is silenced. */
+    private PrintStream _stdout;
+
+    /** Build the repositories for one fork. */
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        _work = new File(System.getProperty("user.dir")).toPath();
+        if (!Files.exists(_work.resolve(MARKER))) {
+            throw new IllegalStateException("run from a directory holding "
+                + MARKER);
+        }
+        _stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Main.setOutput(OutputStream.nullOutputStream());
+        clear(_work);
+        _temp = Files.createTempDirectory("gitlet-bench");
+        _behind = _temp.resolve("behind");
+        _remote = _temp.resolve("remote");
+        _pristine = _temp.resolve("pristine");
+        Path ahead = _temp.resolve("ahead");
+        RepoGenerator generator = new RepoGenerator().files(files)
+            .size(size).depth(depth).branches(branches);
+        generator.generate();
+        Main.run("add-remote", "upstream",
+            ahead.resolve(Repo.GITLET_DIR).toString());
+        Main.run("add-remote", "origin",
+            _remote.resolve(Repo.GITLET_DIR).toString());
+        copy(_work, _behind);
+        for (int c = 1; c <= EXTRA; c += 1) {
+            generator.change(Math.max(1, files / 10), "extra commit " + c);
+        }
+        copy(_work, ahead);
+        copy(_work, _pristine);
+        _changed = new ArrayList<String>();
+        for (int i = 0; i < files; i += Math.max(1, files / 10)) {
+            _changed.add(RepoGenerator.fileName(i));
+        }
+        _next = RepoGenerator.branchName(0);
+    }
+
+    /** Remove everything made for this fork. */
+    @TearDown(Level.Trial)
+    public void cleanUp() throws IOException {
+        clear(_work);
+        delete(_temp);
+        System.setOut(_stdout);
+    }
+
+    /** State for add: a tenth of the files changed afresh each time. */
+    @State(Scope.Benchmark)
+    public static class Changed {
+        /** Change the files. */
+        @Setup(Level.Invocation)
+        public void change(CommandBenchmarks bench) {
+            bench.touch();
+        }
+    }
+
+    /** State for commit: a tenth of the files changed and staged. */
+    @State(Scope.Benchmark)
+    public static class Staged {
+        /** Change and stage the files. */
+        @Setup(Level.Invocation)
+        public void stage(CommandBenchmarks bench) throws IOException {
+            bench.touch();
+            bench.add();
+        }
+    }
+
+    /** State for merge: the repository as generated. */
+    @State(Scope.Benchmark)
+    public static class Restored {
+        /** Put back the generated repository. */
+        @Setup(Level.Invocation)
+        public void restore(CommandBenchmarks bench) throws IOException {
+            bench.restore(bench._pristine);
+        }
+    }
+
+    /** State for push: a remote lacking the last EXTRA commits. */
+    @State(Scope.Benchmark)
+    public static class BehindRemote {
+        /** Reset the remote. */
+        @Setup(Level.Invocation)
+        public void reset(CommandBenchmarks bench) throws IOException {
+            delete(bench._remote);
+            copy(bench._behind.resolve(Repo.GITLET_DIR),
+                bench._remote.resolve(Repo.GITLET_DIR));
+        }
+    }
+
+    /** State for fetch: a working repository lacking the last EXTRA
+     *  commits. */
+    @State(Scope.Benchmark)
+    public static class BehindLocal {
+        /** Reset the working repository. */
+        @Setup(Level.Invocation)
+        public void reset(CommandBenchmarks bench) throws IOException {
+            bench.restore(bench._behind);
+        }
+    }
+
+    /** Stage a tenth of the files. */
+    @Benchmark
+    public void add(Changed changed) throws IOException {
+        add();
+    }
+
+    /** Commit a tenth of the files. */
+    @Benchmark
+    public void commit(Staged staged) throws IOException {
+        Main.run("commit", "benchmark commit " + _version);
+    }
+
+    /** Report the status of every file. */
+    @Benchmark
+    public void status() throws IOException {
+        Main.run("status");
+    }
+
+    /** Print the whole history of master. */
+    @Benchmark
+    public void log() throws IOException {
+        Main.run("log");
+    }
+
+    /** Switch between master and a branch. */
+    @Benchmark
+    public void checkout() throws IOException {
+        Main.run("checkout", _next);
+        _next = _next.equals("master") ? RepoGenerator.branchName(0)
+            : "master";
+    }
+
+    /** Merge a branch into master. */
+    @Benchmark
+    public void merge(Restored restored) throws IOException {
+        Main.run("merge", RepoGenerator.branchName(branches - 1));
+    }
+
+    /** Push the last EXTRA commits. */
+    @Benchmark
+    public void push(BehindRemote remote) throws IOException {
+        Main.run("push", "origin", "master");
+    }
+
+    /** Fetch the last EXTRA commits. */
+    @Benchmark
+    public void fetch(BehindLocal local) throws IOException {
+        Main.run("fetch", "upstream", "master");
+    }
+
+    /** Rewrite the files in _changed with new contents. */
+    void touch() {
+        _version += 1;
+        for (String name : _changed) {
+            Utils.writeContents(new File(name),
+                "version " + _version + " of " + name + "\n");
+        }
+    }
+
+    /** Stage the files in _changed. */
+    void add() throws IOException {
+        List<String> args = new ArrayList<String>();
+        args.add("add");
+        args.addAll(_changed);
+        Main.run(args.toArray(new String[0]));
+    }
+
+    /** Make the working directory a copy of SNAPSHOT. */
+    void restore(Path snapshot) throws IOException {
+        clear(_work);
+        copy(snapshot, _work);
+    }
+
+    /** Delete everything in DIR but the marker. */
+    static void clear(Path dir) throws IOException {
+        try (Stream<Path> entries = Files.list(dir)) {
+            for (Path entry : (Iterable<Path>) entries::iterator) {
+                if (!entry.getFileName().toString().equals(MARKER)) {
+                    delete(entry);
+                }
+            }
+        }
+    }
+
+    /** Delete PATH and everything under it, if it exists. */
+    static void delete(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> all = Files.walk(path)) {
+            for (Path p : (Iterable<Path>) all.sorted(
+                     Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+
+    /** Copy everything under FROM but the marker into TO. */
+    static void copy(Path from, Path to) throws IOException {
+        try (Stream<Path> all = Files.walk(from)) {
+            for (Path p : (Iterable<Path>) all::iterator) {
+                Path rel = from.relativize(p);
+                if (rel.toString().equals(MARKER)) {
+                    continue;
+                }
+                Path target = to.resolve(rel.toString());
+                if (Files.isDirectory(p)) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.copy(p, target,
+                        StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/** Times diff on large files: a file of N lines against copies of it
+ *  with a growing number of lines changed, inserted and deleted at
+ *  random.  Each run hashes both files, diffs the hashes, and writes a
+ *  unified diff to nowhere; the hashing and the diff are also timed
+ *  alone.  Run, after "make" in benchmarks, as
+ *      java -cp classes:.. gitlet.DiffBenchmark [N]
+ *  for files of N lines (default 1000000).
+ *  @author Laiming Huang
+ */
+public class DiffBenchmark {
+
+    /** Numbers of edits tried. */
+    static final int[] EDITS = { 10, 100, 1000, 10000 };
+
+    /** Write N lines of text to FILE, making EDITS random edits to the
+     *  lines numbered by SEED's generator, and return FILE. */
+    static File lines(File file, int n, int edits, long seed)
+        throws IOException {
+        Random random = new Random(seed);
+        boolean[] changed = new boolean[n];
+        boolean[] inserted = new boolean[n];
+        boolean[] deleted = new boolean[n];
+        for (int k = 0; k < edits; k += 1) {
+            int line = random.nextInt(n);
+            switch (k % 3) {
+            case 0:
+                changed[line] = true;
+                break;
+            case 1:
+                inserted[line] = true;
+                break;
+            default:
+                deleted[line] = true;
+            }
+        }
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < n; i += 1) {
+            if (inserted[i]) {
+                text.append("inserted before line ").append(i).append('\n');
+            }
+            if (!deleted[i]) {
+                text.append(changed[i] ? "changed line " : "line ")
+                    .append(i).append('\n');
+            }
+        }
+        Utils.writeContents(file, text.toString());
+        return file;
+    }
+
+    /** Runs the benchmark on files of ARGS[0] lines. */
+    public static void main(String[] args) throws IOException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        File dir = new File(System.getProperty("java.io.tmpdir"));
+        File before = lines(File.createTempFile("diff-", ".txt", dir),
+            n, 0, 0);
+        File after = File.createTempFile("diff-", ".txt", dir);
+        try {
+            System.out.printf("Diffing files of %d lines.%n", n);
+            for (int edits : EDITS) {
+                lines(after, n, edits, edits);
+                for (int warmup = 0; warmup < 2; warmup += 1) {
+                    time(before, after, edits, warmup == 1);
+                }
+            }
+        } finally {
+            before.delete();
+            after.delete();
+        }
+    }
+
+    /** Time hashing, diffing and printing BEFORE against AFTER, which
+     *  has EDITS edits, reporting the times iff REPORT. */
+    static void time(File before, File after, int edits, boolean report)
+        throws IOException {
+        long start = System.nanoTime();
+        long[] a = Lines.hashes(new FileInputStream(before));
+        long[] b = Lines.hashes(new FileInputStream(after));
+        long hashed = System.nanoTime();
+        int hunks = Diff.diff(a, b).size();
+        long diffed = System.nanoTime();
+        try (DiffWriter out =
+                 new DiffWriter(OutputStream.nullOutputStream())) {
+            out.write("f", () -> new FileInputStream(before),
+                () -> new FileInputStream(after));
+        }
+        long printed = System.nanoTime();
+        if (report) {
+            System.out.printf("%6d edits, %6d hunks: hash %.3f sec, "
+                + "diff %.3f sec, whole diff command %.3f sec.%n",
+                edits, hunks, (hashed - start) / 1e9,
+                (diffed - hashed) / 1e9, (printed - diffed) / 1e9);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package gitlet;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+
+/** Times the work log does per commit over a long history, first
+ *  recomputing each id and date string on every use, as commits used
+ *  to, then with the ids and dates each commit now keeps.  Run, after
+ *  "make" in benchmarks, as
+ *      java -cp classes:.. gitlet.LogBenchmark [N]
+ *  for a history of N commits (default 100000).
+ *  @author Laiming Huang
+ */
+public class LogBenchmark {
+
+    /** Times each id and date is asked for during one log entry and
+     *  the ancestry walks around it. */
+    static final int USES = 3;
+
+    /** Returns a chain of N commits, keyed by id, whose newest commit is
+     *  stored under the key "HEAD". */
+    static HashMap<String, Commit> history(int n) {
+        HashMap<String, Commit> result = new HashMap<String, Commit>();
+        Commit c = new Commit();
+        result.put(c.toSha1(), c);
+        for (int i = 1; i < n; i += 1) {
+            c = new Commit(Tree.EMPTY, c.toSha1(), "commit " + i,
+                new Date(1000L * i));
+            result.put(c.toSha1(), c);
+        }
+        result.put("HEAD", c);
+        return result;
+    }
+
+    /** Returns the id of C computed from scratch, as toSha1 used to. */
+    static String uncachedId(Commit c) {
+        return Utils.sha1(c.getParent() + c.getMessage() + uncachedDate(c));
+    }
+
+    /** Returns the date line of C formatted from scratch, as timeToString
+     *  used to. */
+    static String uncachedDate(Commit c) {
+        return "Date: " + new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z")
+            .format(c.getTime());
+    }
+
+    /** Returns the seconds needed to print the log of HISTORY to OUT,
+     *  computing ids and dates afresh iff UNCACHED. */
+    static double log(HashMap<String, Commit> history, PrintStream out,
+                      boolean uncached) {
+        long start = System.nanoTime();
+        Commit c = history.get("HEAD");
+        while (c != null) {
+            String id = null, date = null;
+            for (int k = 0; k < USES; k += 1) {
+                id = uncached ? uncachedId(c) : c.toSha1();
+                date = uncached ? uncachedDate(c) : c.timeToString();
+            }
+            out.println("===");
+            out.println("commit " + id);
+            out.println(date);
+            out.println(c.getMessage());
+            out.println();
+            c = history.get(c.getParent());
+        }
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    /** Runs the benchmark on a history of ARGS[0] commits. */
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        PrintStream sink = new PrintStream(OutputStream.nullOutputStream());
+        System.out.printf("Building a history of %d commits.%n", n);
+        HashMap<String, Commit> history = history(n);
+        log(history, sink, true);
+        log(history, sink, false);
+        System.out.printf("Uncached ids and dates took: %.2f sec.%n",
+            log(history, sink, true));
+        System.out.printf("Cached ids and dates took: %.2f sec.%n",
+            log(history, sink, false));
+    }
+}
@@ -1,28 +1,25 @@
 package gitlet;
 
-import java.io.Serializable;
-
-/** Gitlet Branch.
+/** Gitlet Branch: a name and the id of its head commit, which the
+ * repository resolves through its commit store.  On disk a branch is
+ * the file .gitlet/branches/NAME holding just that id.
  * @author Laiming Huang
  */
 
-public class Branch implements Serializable {
+public class Branch {
 
     /** Name of the branch. */
     private String branchName;
-    /** The head of the branch. */
-    private Commit branchHead;
-    /** Whether this branch is the current branch. */
-    private boolean currBranch;
+    /** Id of the head of the branch. */
+    private String branchHead;
 
     /** Constructor for the Branch class.
-     * @param head head.
+     * @param head Id of the head.
      * @param name name.
      */
-    public Branch(String name, Commit head) {
+    public Branch(String name, String head) {
         this.branchName = name;
         this.branchHead = head;
-        this.currBranch = false;
     }
 
     /**
@@ -35,40 +32,18 @@ public class Branch implements Serializable {
 
     /**
      * Get head of the branch.
-     * @return Return current head name.
+     * @return Return the id of the current head.
      */
-    public Commit getHead() {
+    public String getHeadId() {
         return branchHead;
     }
 
-    /**
-     * Check whether the branch is the current branch.
-     * @return Return whether the branch is the current branch.
-     */
-    public boolean isCurrBranch() {
-        return currBranch;
-    }
-
-    /**
-     * Set this branch to be current branch.
-     */
-    public void toCurr() {
-        currBranch = true;
-    }
-
-    /**
-     * Set this branch to not be current branch.
-     */
-    public void disCurr() {
-        currBranch = false;
-    }
-
     /**
      * Change this branch's head to given commit.
-     * @param c Given commit that we wish to set to head.
+     * @param id Id of the commit that we wish to set to head.
      */
-    public void changeHeadTo(Commit c) {
-        this.branchHead = c;
+    public void changeHeadTo(String id) {
+        this.branchHead = id;
     }
 
 }
@@ -0,0 +1,109 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+
+/** Materializes blobs in the working directory.  Files are written by
+ *  copying from the object store with transferTo or, when the
+ *  GITLET_CHECKOUT environment variable is "link", by hard-linking
+ *  the stored object.  Linked objects are made read-only first, since
+ *  editing a linked working file in place would change the stored
+ *  object too.  The price is that linked working files are read-only
+ *  as well: the user must replace one with a copy before editing it
+ *  in place (see gitlet-design.txt).  A file that cannot be linked
+ *  (different file system, no link support) is copied instead.  Every
+ *  file written is noted in the stat cache, so a later status need not
+ *  read it back.
+ *  @author Laiming Huang
+ */
+class Checkout {
+
+    /** Environment variable choosing the checkout mode. */
+    static final String MODE_VARIABLE = "GITLET_CHECKOUT";
+
+    /** Where blobs come from. */
+    private final ObjectStore _objects;
+    /** Where to record the files written. */
+    private final StatCache _stats;
+    /** True iff blobs should be hard-linked rather than copied. */
+    private final boolean _link;
+
+    /** A checkout from OBJECTS, in the mode chosen by the environment,
+     *  noting each file written in STATS. */
+    Checkout(ObjectStore objects, StatCache stats) {
+        this(objects, stats, "link".equals(Main.getenv(MODE_VARIABLE)));
+    }
+
+    /** A checkout from OBJECTS that hard-links blobs iff LINK, noting
+     *  each file written in STATS. */
+    Checkout(ObjectStore objects, StatCache stats, boolean link) {
+        _objects = objects;
+        _stats = stats;
+        _link = link;
+    }
+
+    /** Bring the working directory from one tree to another, given
+     *  CHANGES as produced by Tree.diff: each name maps to its {old,
+     *  new} blob ids.  Names with no new blob are deleted; all others
+     *  are rewritten.  Files the two trees agree on are not touched. */
+    void apply(Map<String, String[]> changes) {
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            String id = change.getValue()[1];
+            if (id == null) {
+                new File(change.getKey()).delete();
+                _stats.forget(change.getKey());
+            } else {
+                write(change.getKey(), id);
+            }
+        }
+    }
+
+    /** Make every working file named in FILES hold the blob it maps to,
+     *  writing only those that are missing or differ.  The stat cache
+     *  spares reading files that are known to be up to date. */
+    void restore(Map<String, String> files) {
+        for (Map.Entry<String, String> entry : files.entrySet()) {
+            File file = new File(entry.getKey());
+            if (!file.isFile()
+                || !entry.getValue().equals(_stats.hash(file))) {
+                write(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /** Replace the working file NAME with blob ID.  The old file is
+     *  removed first rather than truncated, so that a file hard-linked
+     *  to the store is never written through. */
+    void write(String name, String id) {
+        try (Trace.Span span = Trace.span("checkout file")) {
+            File file = new File(name);
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null) {
+                parent.mkdirs();
+            }
+            file.delete();
+            if (!_link || !link(file, id)) {
+                _objects.copyTo(id, file);
+            }
+            _stats.record(file, id);
+        }
+    }
+
+    /** Hard-link FILE to the stored object ID, returning true iff it
+     *  worked. */
+    private boolean link(File file, String id) {
+        File object = _objects.file(id);
+        if (!object.isFile()) {
+            return false;
+        }
+        try {
+            object.setReadOnly();
+            Files.createLink(file.toPath(), object.toPath());
+            return true;
+        } catch (IOException | UnsupportedOperationException excp) {
+            return false;
+        }
+    }
+}
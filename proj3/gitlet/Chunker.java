@@ -0,0 +1,120 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/** Splits a stream into content-defined chunks with FastCDC (Xia et
+ *  al., 2016).  A gear hash rolls over the bytes, and a chunk ends
+ *  where the hash's top bits are all zero; since the hash depends only
+ *  on the last 64 bytes, an edit moves the boundaries near it and no
+ *  others, so two versions of a large file share all but a few chunks.
+ *  Normalized chunking uses a harder test before the average size and
+ *  an easier one after it, which keeps chunk sizes close to the
+ *  average; no chunk is shorter than MIN_SIZE, except the last, or
+ *  longer than MAX_SIZE.
+ *  @author Laiming Huang
+ */
+class Chunker {
+
+    /** Smallest chunk, but for the last. */
+    static final int MIN_SIZE = 1 << 14;
+    /** Typical chunk size. */
+    static final int AVERAGE_SIZE = 1 << 16;
+    /** Largest chunk. */
+    static final int MAX_SIZE = 1 << 18;
+    /** Hash bits that must be zero for a boundary before AVERAGE_SIZE:
+     *  two more than log2(AVERAGE_SIZE). */
+    private static final long MASK_SMALL = -1L << (64 - 18);
+    /** Hash bits that must be zero for a boundary after AVERAGE_SIZE:
+     *  two fewer than log2(AVERAGE_SIZE). */
+    private static final long MASK_LARGE = -1L << (64 - 14);
+    /** Random value of each byte, fixed forever, since stored chunk
+     *  boundaries depend on it. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** Where the bytes come from. */
+    private final InputStream _in;
+    /** Bytes read but not yet returned, in _buffer[_pos, _limit). */
+    private final byte[] _buffer = new byte[2 * MAX_SIZE];
+    /** Start of the unreturned bytes. */
+    private int _pos;
+    /** End of the bytes read. */
+    private int _limit;
+    /** Length of the chunk last returned. */
+    private int _length;
+    /** True once IN is exhausted. */
+    private boolean _eof;
+
+    /** A chunker of the bytes of IN, which the caller closes. */
+    Chunker(InputStream in) {
+        _in = in;
+    }
+
+    /** Advance to the next chunk and return its length, or 0 at the end
+     *  of the stream.  The chunk is in buffer() from offset() until the
+     *  next call. */
+    int next() throws IOException {
+        _pos += _length;
+        if (_limit - _pos < MAX_SIZE && !_eof) {
+            System.arraycopy(_buffer, _pos, _buffer, 0, _limit - _pos);
+            _limit -= _pos;
+            _pos = 0;
+            while (_limit < _buffer.length) {
+                int n = _in.read(_buffer, _limit, _buffer.length - _limit);
+                if (n < 0) {
+                    _eof = true;
+                    break;
+                }
+                Trace.read(n);
+                _limit += n;
+            }
+        }
+        _length = cut(_buffer, _pos, _limit);
+        return _length;
+    }
+
+    /** Return the buffer holding the current chunk. */
+    byte[] buffer() {
+        return _buffer;
+    }
+
+    /** Return where the current chunk starts in buffer(). */
+    int offset() {
+        return _pos;
+    }
+
+    /** Return the length of the chunk starting at B[START], given that
+     *  B[START, END) is either at least MAX_SIZE bytes or all that is
+     *  left. */
+    static int cut(byte[] b, int start, int end) {
+        int n = end - start;
+        if (n <= MIN_SIZE) {
+            return n;
+        }
+        int normal = Math.min(n, AVERAGE_SIZE);
+        int max = Math.min(n, MAX_SIZE);
+        long hash = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[b[start + i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < max; i += 1) {
+            hash = (hash << 1) + GEAR[b[start + i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return max;
+    }
+}
@@ -1,23 +1,46 @@
 package gitlet;
 
-import java.io.Serializable;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 
-/** Gitlet Commit.
+/** Gitlet Commit.  Commits are immutable once made, so each is saved
+ * exactly once, as its own record in the repository's commit store.
+ * A commit names its tracked files by the id of a Tree, which shares
+ * unchanged nodes with its parent's; the map itself is read from the
+ * object store only when asked for.
  * @author Laiming Huang
  */
-public class Commit implements Serializable {
+public class Commit {
 
     /**
-     * All children of the commit.
+     * Version tag of the binary encoding.
      */
-    private ArrayList<String> children;
+    private static final byte FORMAT = 1;
     /**
-     * All tracked files of the commit.
+     * Format of commit times, shared by all commits.
+     */
+    private static final DateTimeFormatter DATE_FORMAT =
+        DateTimeFormatter.ofPattern("EEE MMM d HH:mm:ss yyyy Z")
+            .withZone(ZoneId.systemDefault());
+    /**
+     * Id of the tree of tracked files.
+     */
+    private String _tree;
+    /**
+     * Object store holding the tree, once attached.
+     */
+    private ObjectStore _objects;
+    /**
+     * All tracked files of the commit, once read.
      */
     private HashMap<String, String> trackedFiles;
     /**
@@ -36,6 +59,14 @@ public class Commit implements Serializable {
      * Commit time.
      */
     private Date _time;
+    /**
+     * Formatted commit time, as printed by log.
+     */
+    private String _timeString;
+    /**
+     * Id of the commit, computed once.
+     */
+    private String _id;
 
     /**
      * Default Constructor.
@@ -45,45 +76,126 @@ public class Commit implements Serializable {
         parent2 = "";
         message = "initial commit";
         _time = new Date(0);
+        _tree = Tree.EMPTY;
         trackedFiles = new HashMap<String, String>();
-        children = new ArrayList<String>();
+        _id = toSha1();
     }
 
     /**
      * Constructor when there is only one parent.
-     * @param trackingFiles All tracking files of the commit.
+     * @param tree Id of the tree of tracked files.
      * @param parent1 The sole parent of the commit.
      * @param msg Message of ths commit.
      * @param time Time of the commit.
      */
-    public Commit(HashMap<String, String> trackingFiles, String parent1,
-                  String msg, Date time) {
-        this.parent = parent1;
-        this.parent2 = null;
-        this._time = time;
-        this.message = msg;
-        this.trackedFiles = new HashMap<String, String>();
-        this.trackedFiles.putAll(trackingFiles);
-        this.children = new ArrayList<String>();
+    public Commit(String tree, String parent1, String msg, Date time) {
+        this(tree, parent1, null, msg, time);
     }
 
     /**
      * Constructor when there are two parents.
-     * @param trackingFiles All tracking files of the commit.
+     * @param tree Id of the tree of tracked files.
      * @param parent1 The first parent of the commit.
      * @param secondParent The second parent of the commit.
      * @param theMessage Message of ths commit.
      * @param time Time of the commit.
      */
-    public Commit(HashMap<String, String> trackingFiles, String parent1,
+    public Commit(String tree, String parent1,
                   String secondParent, String theMessage, Date time) {
+        this(null, tree, parent1, secondParent, theMessage, time);
+    }
+
+    /**
+     * Constructor for a commit whose id is already known.
+     * @param id Id of the commit, or null to compute it.
+     * @param tree Id of the tree of tracked files.
+     * @param parent1 The first parent of the commit.
+     * @param secondParent The second parent of the commit.
+     * @param theMessage Message of ths commit.
+     * @param time Time of the commit.
+     */
+    private Commit(String id, String tree, String parent1,
+                   String secondParent, String theMessage, Date time) {
         this.parent = parent1;
         this.parent2 = secondParent;
         this._time = time;
         this.message = theMessage;
-        this.trackedFiles = new HashMap<String, String>();
-        this.trackedFiles.putAll(trackingFiles);
-        this.children = new ArrayList<String>();
+        this._tree = tree;
+        _id = id == null ? toSha1() : id;
+    }
+
+    /**
+     * Decode a commit from its binary form.  The id is the one it is
+     * stored under, not recomputed: the hash covers the formatted time,
+     * which depends on the time zone of the process reading it.
+     * @param id The id the commit is stored under.
+     * @param bytes The encoding produced by encode().
+     * @return The commit.
+     */
+    static Commit decode(String id, byte[] bytes) {
+        Trace.deserialized();
+        try {
+            DataInputStream in =
+                new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readByte() != FORMAT) {
+                throw Utils.error("Unknown commit format.");
+            }
+            String parent1 = in.readUTF();
+            String secondParent = in.readBoolean() ? in.readUTF() : null;
+            byte[] raw = new byte[in.readInt()];
+            in.readFully(raw);
+            String msg = new String(raw, StandardCharsets.UTF_8);
+            Date time = new Date(in.readLong());
+            String tree = in.readUTF();
+            return new Commit(id, tree, parent1, secondParent, msg, time);
+        } catch (IOException excp) {
+            throw Utils.error("Corrupt commit record.");
+        }
+    }
+
+    /**
+     * Encode this commit compactly: a format tag, first parent, an
+     * optional second parent, message (its length in bytes and its
+     * UTF-8 bytes, so it may be of any length), time in milliseconds,
+     * and tree id.
+     * @return The binary form of this commit.
+     */
+    byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(FORMAT);
+            out.writeUTF(parent);
+            out.writeBoolean(parent2 != null);
+            if (parent2 != null) {
+                out.writeUTF(parent2);
+            }
+            byte[] raw = message.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(raw.length);
+            out.write(raw);
+            out.writeLong(_time.getTime());
+            out.writeUTF(_tree);
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw Utils.error("Internal error serializing commit.");
+        }
+    }
+
+    /**
+     * Let this commit read its tree from OBJECTS.
+     * @param objects The object store.
+     */
+    void attach(ObjectStore objects) {
+        _objects = objects;
+    }
+
+    /**
+     * Get the id of the tree of tracked files.
+     * @return Tree id.
+     */
+    public String getTree() {
+        return _tree;
     }
 
     /**
@@ -146,15 +258,23 @@ public class Commit implements Serializable {
      * @return Tracking files of the commit.
      */
     public HashMap<String, String> getTrackedFiles() {
+        if (trackedFiles == null) {
+            trackedFiles = Tree.read(_objects, _tree);
+        }
         return trackedFiles;
     }
 
     /**
-     * Get the children of the commit.
-     * @return Children of the commit.
+     * Get the blob id of one tracked file, without reading the whole
+     * tree if it has not been read already.
+     * @param fileName The file name.
+     * @return Its blob id, or null if the file is not tracked.
      */
-    public ArrayList<String> getChildren() {
-        return children;
+    public String getTrackedFile(String fileName) {
+        if (trackedFiles != null) {
+            return trackedFiles.get(fileName);
+        }
+        return Tree.get(_objects, _tree, fileName);
     }
 
     /**
@@ -170,23 +290,26 @@ public class Commit implements Serializable {
      * @return Time in standard format.
      */
     public String timeToString() {
-        SimpleDateFormat formatedDate =
-            new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z");
-        String res = formatedDate.format(_time);
-        return "Date: " + res;
+        if (_timeString == null) {
+            _timeString = "Date: " + DATE_FORMAT.format(_time.toInstant());
+        }
+        return _timeString;
     }
 
     /**
-     * Generate Sha1 of the commit.
+     * Generate Sha1 of the commit.  It is computed when the commit is
+     * made, or taken from the store when it is read, and remembered
+     * thereafter.
      * @return Sha1 of the commit.
      */
     public String toSha1() {
-        String represent = "";
-        StringBuilder tmp = new StringBuilder();
-        tmp.append(parent);
-        tmp.append(message);
-        tmp.append(timeToString());
-        represent = tmp.toString();
-        return Utils.sha1(represent);
+        if (_id == null) {
+            StringBuilder tmp = new StringBuilder();
+            tmp.append(parent);
+            tmp.append(message);
+            tmp.append(timeToString());
+            _id = Utils.sha1(tmp.toString());
+        }
+        return _id;
     }
 }
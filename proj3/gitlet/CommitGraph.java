@@ -0,0 +1,443 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+
+/** The shape of the commit history, kept beside the commits so that
+ *  ancestry questions need not read commit records.  Each commit has
+ *  a position in FILE, and its record there holds its id, the
+ *  positions of its parents, its generation number (one more than the
+ *  largest of its parents', 1 for a root) and its time.  Parents
+ *  always precede their children in the file, which only grows.
+ *
+ *  FILE is memory-mapped and read in place: a query reads only the
+ *  records of the commits it visits.  A commit's position is found in
+ *  FILE.ids, which holds the id and position of every commit in the
+ *  file's first part as sorted records, searched by binary search.  The
+ *  few records appended since it was written are looked up by a map
+ *  built when the graph is opened, and once there are TAIL_LIMIT of them
+ *  FILE.ids is rewritten to cover them too.
+ *
+ *  Generation numbers bound every walk: a commit can only be an
+ *  ancestor of commits with larger generation numbers, so searches
+ *  stop as soon as they drop below the generation they are looking
+ *  for instead of running to the root.
+ *
+ *  Several commands may add commits at once, as when one fetches while
+ *  another commits.  Records are appended only under a lock on a file
+ *  beside FILE, after first mapping any that others appended since.
+ *  @author Laiming Huang
+ */
+class CommitGraph {
+
+    /** Position standing for "no parent". */
+    static final int NONE = -1;
+    /** Records allowed past those in FILE.ids before it is rewritten. */
+    static final int TAIL_LIMIT = 512;
+    /** Offsets in a record of the first parent, second parent,
+     *  generation and time, which follow the id. */
+    private static final int PARENT1 = ObjectStore.ID_BYTES,
+        PARENT2 = PARENT1 + 4, GENERATION = PARENT2 + 4,
+        TIME = GENERATION + 4;
+    /** Size of one record: id, two parents, generation, time. */
+    private static final int RECORD = TIME + 8;
+    /** Size of one record of FILE.ids: id and position. */
+    private static final int ENTRY = ObjectStore.ID_BYTES + 4;
+
+    /** The file holding the graph. */
+    private final File _file;
+    /** The sorted ids and positions of the records in FILE's first
+     *  part. */
+    private final File _index;
+    /** Lock file held while appending to FILE. */
+    private final File _lock;
+    /** Source of commits not yet in the graph. */
+    private final Function<String, Commit> _commits;
+    /** The whole records of FILE, mapped, or null until first used. */
+    private ByteBuffer _records;
+    /** The number of records in _records. */
+    private int _count;
+    /** The records of FILE.ids, mapped. */
+    private ByteBuffer _sorted;
+    /** Positions of the commits recorded past those in FILE.ids, or
+     *  about to be appended, by id. */
+    private final HashMap<String, Integer> _tail =
+        new HashMap<String, Integer>();
+    /** Records about to be appended, from position _count on. */
+    private final ArrayList<ByteBuffer> _appended =
+        new ArrayList<ByteBuffer>();
+
+    /** A graph kept in FILE that looks up commits it has not yet
+     *  recorded with COMMITS. */
+    CommitGraph(File file, Function<String, Commit> commits) {
+        _file = file;
+        _index = new File(file.getPath() + ".ids");
+        _lock = new File(file.getPath() + ".lock");
+        _commits = commits;
+    }
+
+    /** Return the number of commits recorded. */
+    int size() {
+        open();
+        return _count;
+    }
+
+    /** Return the ids of all recorded commits, newest first. */
+    List<String> newestFirst() {
+        open();
+        Integer[] order = new Integer[_count];
+        long[] time = new long[_count];
+        for (int i = 0; i < order.length; i += 1) {
+            order[i] = i;
+            time[i] = time(i);
+        }
+        Arrays.sort(order, (x, y) -> time[x] != time[y]
+            ? Long.compare(time[y], time[x]) : Integer.compare(y, x));
+        List<String> result = new ArrayList<String>(order.length);
+        for (int pos : order) {
+            result.add(id(pos));
+        }
+        return result;
+    }
+
+    /** Return the position of commit ID, first recording it and any of
+     *  its ancestors that are missing. */
+    int position(String id) {
+        open();
+        int pos = find(id);
+        if (pos != NONE) {
+            return pos;
+        }
+        try (RepoLock lock = RepoLock.acquire(_lock)) {
+            map();
+            ArrayDeque<Commit> pending = new ArrayDeque<Commit>();
+            if (find(id) == NONE) {
+                pending.push(lookup(id));
+            }
+            while (!pending.isEmpty()) {
+                Commit c = pending.peek();
+                boolean ready = true;
+                for (String parent : parents(c)) {
+                    if (find(parent) == NONE) {
+                        pending.push(lookup(parent));
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    pending.pop();
+                    if (find(c.toSha1()) == NONE) {
+                        append(c);
+                    }
+                }
+            }
+            write();
+        }
+        return find(id);
+    }
+
+    /** Return true iff commit ANCESTOR can be reached from commit
+     *  DESCENDANT by following parents, or is DESCENDANT. */
+    boolean isAncestor(String ancestor, String descendant) {
+        int target = position(ancestor);
+        int start = position(descendant);
+        int floor = generation(target);
+        HashSet<Integer> seen = new HashSet<Integer>();
+        ArrayDeque<Integer> stack = new ArrayDeque<Integer>();
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            int pos = stack.pop();
+            if (pos == target) {
+                return true;
+            }
+            if (generation(pos) <= floor || !seen.add(pos)) {
+                continue;
+            }
+            for (int parent : parents(pos)) {
+                if (parent != NONE) {
+                    stack.push(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Return the id of the best common ancestor of commits A and B:
+     *  one with the largest generation number, so that no other common
+     *  ancestor descends from it.  Returns null if they share none.
+     *  Commits are visited from the highest generation down, marked by
+     *  which of A and B reach them; once every commit still queued is
+     *  below a common ancestor already found, the walk stops. */
+    String mergeBase(String a, String b) {
+        final int fromA = 1, fromB = 2, both = 3, stale = 4;
+        int posA = position(a), posB = position(b);
+        if (posA == posB) {
+            return a;
+        }
+        HashMap<Integer, Integer> flags = new HashMap<Integer, Integer>();
+        PriorityQueue<Integer> queue = new PriorityQueue<Integer>(
+            (x, y) -> generation(x) != generation(y)
+                ? Integer.compare(generation(y), generation(x))
+                : Long.compare(time(y), time(x)));
+        flags.put(posA, fromA);
+        flags.put(posB, fromB);
+        queue.add(posA);
+        queue.add(posB);
+        int live = 2;
+        String result = null;
+        while (live > 0) {
+            int pos = queue.poll();
+            int f = flags.get(pos);
+            if ((f & stale) == 0) {
+                live -= 1;
+                if ((f & both) == both) {
+                    if (result == null) {
+                        result = id(pos);
+                    }
+                    f |= stale;
+                }
+            }
+            for (int parent : parents(pos)) {
+                int old = flags.getOrDefault(parent, 0);
+                if (parent == NONE || (old | f) == old) {
+                    continue;
+                }
+                boolean wasLive = old != 0 && (old & stale) == 0;
+                flags.put(parent, old | f);
+                boolean isLive = ((old | f) & stale) == 0;
+                if (old == 0) {
+                    queue.add(parent);
+                }
+                if (isLive && !wasLive) {
+                    live += 1;
+                } else if (!isLive && wasLive) {
+                    live -= 1;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the commit ID, which must exist. */
+    private Commit lookup(String id) {
+        Commit result = _commits.apply(id);
+        if (result == null) {
+            throw Utils.error("Missing commit %s.", id);
+        }
+        return result;
+    }
+
+    /** Return the ids of C's parents. */
+    private static List<String> parents(Commit c) {
+        List<String> result = new ArrayList<String>();
+        if (c.getParent1() != null && !c.getParent1().isEmpty()) {
+            result.add(c.getParent1());
+        }
+        if (c.getParent2() != null && !c.getParent2().isEmpty()) {
+            result.add(c.getParent2());
+        }
+        return result;
+    }
+
+    /** Return the position of commit ID, or NONE if it is not
+     *  recorded. */
+    private int find(String id) {
+        Integer recent = _tail.get(id);
+        if (recent != null) {
+            return recent;
+        }
+        byte[] key = ObjectStore.idToBytes(id);
+        byte[] probe = new byte[ObjectStore.ID_BYTES];
+        int lo = 0, hi = _sorted.capacity() / ENTRY;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            get(_sorted, mid * ENTRY, probe);
+            int cmp = Arrays.compareUnsigned(probe, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid;
+            } else {
+                return _sorted.getInt(mid * ENTRY + ObjectStore.ID_BYTES);
+            }
+        }
+        return NONE;
+    }
+
+    /** Return the buffer holding the record at position POS. */
+    private ByteBuffer buffer(int pos) {
+        return pos < _count ? _records : _appended.get(pos - _count);
+    }
+
+    /** Return where the record at position POS starts in its buffer. */
+    private int offset(int pos) {
+        return pos < _count ? pos * RECORD : 0;
+    }
+
+    /** Return the id of the commit at POS. */
+    private String id(int pos) {
+        byte[] id = new byte[ObjectStore.ID_BYTES];
+        get(buffer(pos), offset(pos), id);
+        return ObjectStore.idFromBytes(id);
+    }
+
+    /** Return the positions of the parents of the commit at POS, NONE
+     *  standing for a missing parent. */
+    private int[] parents(int pos) {
+        ByteBuffer buffer = buffer(pos);
+        int at = offset(pos);
+        return new int[] {
+            buffer.getInt(at + PARENT1), buffer.getInt(at + PARENT2)
+        };
+    }
+
+    /** Return the generation number of the commit at POS. */
+    private int generation(int pos) {
+        return buffer(pos).getInt(offset(pos) + GENERATION);
+    }
+
+    /** Return the time of the commit at POS, in milliseconds. */
+    private long time(int pos) {
+        return buffer(pos).getLong(offset(pos) + TIME);
+    }
+
+    /** Fill BYTES from BUFFER, starting at index AT. */
+    private static void get(ByteBuffer buffer, int at, byte[] bytes) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(at);
+        view.get(bytes);
+    }
+
+    /** Record C, whose parents are already recorded, after the others,
+     *  to be appended by write. */
+    private void append(Commit c) {
+        List<String> parents = parents(c);
+        int p1 = parents.size() > 0 ? find(parents.get(0)) : NONE;
+        int p2 = parents.size() > 1 ? find(parents.get(1)) : NONE;
+        int generation = 1;
+        for (int p : new int[] {p1, p2}) {
+            if (p != NONE) {
+                generation = Math.max(generation, generation(p) + 1);
+            }
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD);
+        record.put(ObjectStore.idToBytes(c.toSha1()));
+        record.putInt(p1).putInt(p2).putInt(generation)
+            .putLong(c.getTime().getTime());
+        _tail.put(c.toSha1(), _count + _appended.size());
+        _appended.add(record);
+    }
+
+    /** Map FILE and FILE.ids, if not yet mapped. */
+    private void open() {
+        if (_records == null) {
+            map();
+        }
+    }
+
+    /** Map the whole records of FILE and all of FILE.ids, and collect
+     *  the positions of the records past those FILE.ids holds.  A
+     *  partial record left at the end of FILE by an interrupted write is
+     *  ignored, and rewritten by the next append. */
+    private void map() {
+        _records = map(_file, RECORD);
+        _count = _records.capacity() / RECORD;
+        _sorted = map(_index, ENTRY);
+        _tail.clear();
+        _appended.clear();
+        for (int pos = _sorted.capacity() / ENTRY; pos < _count;
+             pos += 1) {
+            _tail.put(id(pos), pos);
+        }
+    }
+
+    /** Return the longest prefix of FILE made of whole records of SIZE
+     *  bytes, mapped, or an empty buffer if there is no FILE. */
+    private static ByteBuffer map(File file, int size) {
+        if (!file.isFile()) {
+            return ByteBuffer.allocate(0);
+        }
+        try (FileChannel in = FileChannel.open(file.toPath())) {
+            return in.map(FileChannel.MapMode.READ_ONLY, 0,
+                in.size() / size * size);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Append the records made by append to FILE, rewrite FILE.ids if
+     *  enough records lie past it, and map the result. */
+    private void write() {
+        if (_appended.isEmpty()) {
+            return;
+        }
+        long valid = (long) _count * RECORD;
+        try (FileOutputStream out = new FileOutputStream(_file, true)) {
+            if (out.getChannel().size() != valid) {
+                out.getChannel().truncate(valid);
+            }
+            for (ByteBuffer record : _appended) {
+                out.write(record.array());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        map();
+        if (_tail.size() >= TAIL_LIMIT) {
+            writeIndex();
+            map();
+        }
+    }
+
+    /** Replace FILE.ids by one holding every record of FILE: the
+     *  records it holds merged with those past it, all at once. */
+    private void writeIndex() {
+        byte[][] tail = new byte[_tail.size()][];
+        int i = 0;
+        for (int pos = _count - tail.length; pos < _count; pos += 1) {
+            byte[] id = new byte[ObjectStore.ID_BYTES];
+            get(_records, pos * RECORD, id);
+            tail[i] = ByteBuffer.allocate(ENTRY).put(id).putInt(pos)
+                .array();
+            i += 1;
+        }
+        Arrays.sort(tail, (x, y) -> Arrays.compareUnsigned(x, 0,
+            ObjectStore.ID_BYTES, y, 0, ObjectStore.ID_BYTES));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            byte[] entry = new byte[ENTRY];
+            int n = _sorted.capacity() / ENTRY, j = 0;
+            i = 0;
+            while (j < n || i < tail.length) {
+                if (j < n) {
+                    get(_sorted, j * ENTRY, entry);
+                }
+                if (j < n && (i == tail.length
+                              || Arrays.compareUnsigned(entry, 0,
+                                     ObjectStore.ID_BYTES, tail[i], 0,
+                                     ObjectStore.ID_BYTES) < 0)) {
+                    out.write(entry);
+                    j += 1;
+                } else {
+                    out.write(tail[i]);
+                    i += 1;
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        WriteBatch.replace(_index, bytes.toByteArray());
+    }
+}
@@ -0,0 +1,239 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/** A persistent sorted index of commit ids, for resolving abbreviated
+ *  ids.  The ids live in FILE as sorted 20-byte binary records and are
+ *  searched in place by binary search, so a lookup reads O(log n)
+ *  records.  New ids are appended, unsorted, to a small journal beside
+ *  it and folded into the sorted file once the journal reaches
+ *  JOURNAL_LIMIT entries, so adding a commit stays cheap.  A merge
+ *  replaces the sorted file all at once (WriteBatch.replace) and only
+ *  then deletes the journal.  The journal begins with the length the
+ *  sorted file had when it was started, so one that a crash left
+ *  behind after it was merged no longer matches and is ignored; ids
+ *  are de-duplicated as they are read all the same.
+ *  @author Laiming Huang
+ */
+class CommitIndex {
+
+    /** Journal entries allowed before they are merged into the sorted
+     *  file. */
+    static final int JOURNAL_LIMIT = 512;
+    /** Size of one record. */
+    private static final int RECORD = ObjectStore.ID_BYTES;
+    /** Size of the journal's header. */
+    private static final int HEADER = Long.BYTES;
+
+    /** The sorted file. */
+    private final File _sorted;
+    /** The journal of recently added ids. */
+    private final File _journal;
+    /** Lock file held while either file is written, since several
+     *  commands may add commits at once. */
+    private final File _lock;
+
+    /** An index kept in FILE (and a journal beside it). */
+    CommitIndex(File file) {
+        _sorted = file;
+        _journal = new File(file.getPath() + ".journal");
+        _lock = new File(file.getPath() + ".lock");
+    }
+
+    /** Return true iff this index has been created. */
+    boolean exists() {
+        return _sorted.isFile();
+    }
+
+    /** Create this index holding IDS.  If another command created it
+     *  meanwhile, IDS are merged into it instead. */
+    void rebuild(List<String> ids) {
+        try (RepoLock lock = RepoLock.acquire(_lock)) {
+            ArrayList<byte[]> records = new ArrayList<byte[]>();
+            for (String id : ids) {
+                records.add(ObjectStore.idToBytes(id));
+            }
+            if (exists()) {
+                for (String id : ids()) {
+                    records.add(ObjectStore.idToBytes(id));
+                }
+            }
+            writeSorted(records.toArray(new byte[0][]));
+            _journal.delete();
+        }
+    }
+
+    /** Add ID, which must not already be present. */
+    void add(String id) {
+        try (RepoLock lock = RepoLock.acquire(_lock)) {
+            boolean started = journalStart() >= 0;
+            try (DataOutputStream out = new DataOutputStream(
+                     new FileOutputStream(_journal, started))) {
+                if (!started) {
+                    out.writeLong(_sorted.length());
+                }
+                out.write(ObjectStore.idToBytes(id));
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            if (_journal.length()
+                >= HEADER + (long) JOURNAL_LIMIT * RECORD) {
+                merge();
+            }
+        }
+    }
+
+    /** Return the number of ids in this index. */
+    long size() {
+        int start = journalStart();
+        long journal = start < 0 ? 0 : (_journal.length() - start) / RECORD;
+        return _sorted.length() / RECORD + journal;
+    }
+
+    /** Return every id in this index. */
+    List<String> ids() {
+        LinkedHashSet<String> result = new LinkedHashSet<String>();
+        byte[] all = Utils.readContents(_sorted);
+        for (int i = 0; i + RECORD <= all.length; i += RECORD) {
+            result.add(ObjectStore.idFromBytes(
+                Arrays.copyOfRange(all, i, i + RECORD)));
+        }
+        for (byte[] entry : readJournal()) {
+            result.add(ObjectStore.idFromBytes(entry));
+        }
+        return new ArrayList<String>(result);
+    }
+
+    /** Return up to LIMIT ids that start with the hexadecimal PREFIX,
+     *  in increasing order. */
+    List<String> find(String prefix, int limit) {
+        ArrayList<String> result = new ArrayList<String>();
+        prefix = prefix.toLowerCase();
+        if (!prefix.matches("[0-9a-f]{0,40}")) {
+            return result;
+        }
+        byte[] low = ObjectStore.idToBytes(
+            (prefix + "0000000000000000000000000000000000000000")
+                .substring(0, Utils.UID_LENGTH));
+        try (RandomAccessFile in = new RandomAccessFile(_sorted, "r")) {
+            long n = in.length() / RECORD;
+            long lo = 0, hi = n;
+            byte[] record = new byte[RECORD];
+            while (lo < hi) {
+                long mid = (lo + hi) >>> 1;
+                read(in, mid, record);
+                if (Arrays.compareUnsigned(record, low) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            for (long i = lo; i < n && result.size() < limit; i += 1) {
+                read(in, i, record);
+                String id = ObjectStore.idFromBytes(record);
+                if (!id.startsWith(prefix)) {
+                    break;
+                }
+                result.add(id);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        for (byte[] entry : readJournal()) {
+            String id = ObjectStore.idFromBytes(entry);
+            if (id.startsWith(prefix) && !result.contains(id)) {
+                result.add(id);
+            }
+        }
+        result.sort(null);
+        return result.size() > limit ? result.subList(0, limit) : result;
+    }
+
+    /** Fold the journal into the sorted file. */
+    private void merge() {
+        byte[][] journal = readJournal();
+        byte[][] sorted;
+        try {
+            byte[] all = Utils.readContents(_sorted);
+            sorted = new byte[all.length / RECORD + journal.length][];
+            for (int i = 0; i < all.length / RECORD; i += 1) {
+                sorted[i] = Arrays.copyOfRange(all, i * RECORD,
+                    (i + 1) * RECORD);
+            }
+        } catch (IllegalArgumentException excp) {
+            sorted = new byte[journal.length][];
+        }
+        System.arraycopy(journal, 0, sorted,
+            sorted.length - journal.length, journal.length);
+        writeSorted(sorted);
+        _journal.delete();
+    }
+
+    /** Sort RECORDS, drop repeats, and replace the sorted file with
+     *  them all at once. */
+    private void writeSorted(byte[][] records) {
+        Arrays.sort(records, new Comparator<byte[]>() {
+            @Override
+            public int compare(byte[] a, byte[] b) {
+                return Arrays.compareUnsigned(a, b);
+            }
+        });
+        byte[] all = new byte[records.length * RECORD];
+        int n = 0;
+        for (int i = 0; i < records.length; i += 1) {
+            if (i == 0 || !Arrays.equals(records[i], records[i - 1])) {
+                System.arraycopy(records[i], 0, all, n * RECORD, RECORD);
+                n += 1;
+            }
+        }
+        WriteBatch.replace(_sorted, Arrays.copyOf(all, n * RECORD));
+    }
+
+    /** Return where the records in the journal start, after its
+     *  header.  Returns -1 if there is no journal, or if it was already
+     *  merged into the sorted file. */
+    private int journalStart() {
+        if (_journal.length() < HEADER) {
+            return -1;
+        }
+        try (DataInputStream in = new DataInputStream(
+                 new FileInputStream(_journal))) {
+            return in.readLong() == _sorted.length() ? HEADER : -1;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the records in the journal. */
+    private byte[][] readJournal() {
+        int start = journalStart();
+        if (start < 0) {
+            return new byte[0][];
+        }
+        byte[] all = Utils.readContents(_journal);
+        byte[][] result = new byte[(all.length - start) / RECORD][];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = Arrays.copyOfRange(all, start + i * RECORD,
+                start + (i + 1) * RECORD);
+        }
+        return result;
+    }
+
+    /** Read record I of IN into RECORD. */
+    private static void read(RandomAccessFile in, long i, byte[] record)
+        throws IOException {
+        in.seek(i * RECORD);
+        in.readFully(record);
+    }
+}
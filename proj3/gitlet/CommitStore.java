@@ -0,0 +1,241 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** The commits of a repository, one immutable record per commit, read
+ *  from disk only when asked for.  The most recently used CACHE_SIZE
+ *  commits are kept in memory, so a walk over a long history holds a
+ *  bounded number of them however long it is.  A sorted index of their ids
+ *  resolves abbreviated ids, and an inverted index of their messages
+ *  answers find, both without listing the store.  A commit graph of
+ *  their parents and generation numbers answers ancestry questions
+ *  without reading the records themselves.
+ *  @author Laiming Huang
+ */
+class CommitStore {
+
+    /** Most commits one store keeps in memory. */
+    static final int CACHE_SIZE = 1024;
+
+    /** Lookups answered from memory, by every store in this process. */
+    private static final AtomicLong HITS = new AtomicLong();
+    /** Lookups that read a record from disk, by every store in this
+     *  process. */
+    private static final AtomicLong MISSES = new AtomicLong();
+
+    /** Where the commit records live. */
+    private final ObjectStore _store;
+    /** Store holding the commits' trees. */
+    private final ObjectStore _objects;
+    /** Recently used commits of every repository this process has
+     *  opened, by commit directory.  Commits never change, so a long-lived
+     *  process such as the daemon shares them between commands. */
+    private static final HashMap<File, LinkedHashMap<String, Commit>> CACHES =
+        new HashMap<File, LinkedHashMap<String, Commit>>();
+
+    /** Recently used commits, keyed by id, least recently used first. */
+    private final LinkedHashMap<String, Commit> _loaded;
+    /** Sorted index of all commit ids. */
+    private final CommitIndex _index;
+    /** Index of all commit messages. */
+    private final MessageIndex _messages;
+    /** Parents and generation numbers of the commits. */
+    private final CommitGraph _graph;
+
+    /** A commit store rooted at DIR whose trees are in OBJECTS. */
+    CommitStore(File dir, ObjectStore objects) {
+        _store = new ObjectStore(dir);
+        _objects = objects;
+        _loaded = cache(dir.getAbsoluteFile());
+        _index = new CommitIndex(new File(dir, "ids"));
+        _messages = new MessageIndex(new File(dir, "postings"));
+        _graph = new CommitGraph(new File(dir, "graph"), this::get);
+    }
+
+    /** Return the cache of commits in DIR, shared by every store of
+     *  DIR in this process. */
+    private static LinkedHashMap<String, Commit> cache(File dir) {
+        synchronized (CACHES) {
+            LinkedHashMap<String, Commit> result = CACHES.get(dir);
+            if (result == null) {
+                result = new LinkedHashMap<String, Commit>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(
+                        Map.Entry<String, Commit> e) {
+                        return size() > CACHE_SIZE;
+                    }
+                };
+                CACHES.put(dir, result);
+            }
+            return result;
+        }
+    }
+
+    /** Return true iff commit ID exists. */
+    boolean contains(String id) {
+        synchronized (_loaded) {
+            if (_loaded.containsKey(id)) {
+                return true;
+            }
+        }
+        return _store.contains(id);
+    }
+
+    /** Return the commit ID, or null if there is no such commit. */
+    Commit get(String id) {
+        Commit result;
+        synchronized (_loaded) {
+            result = _loaded.get(id);
+        }
+        if (result != null) {
+            HITS.incrementAndGet();
+        } else if (_store.contains(id)) {
+            MISSES.incrementAndGet();
+            try (Trace.Span span = Trace.span("read commit")) {
+                result = Commit.decode(id, _store.read(id));
+            }
+            synchronized (_loaded) {
+                _loaded.put(id, result);
+            }
+        } else {
+            return null;
+        }
+        result.attach(_objects);
+        return result;
+    }
+
+    /** Return the numbers of hits and misses so far, by every store in
+     *  this process. */
+    static long[] cacheCounts() {
+        return new long[] { HITS.get(), MISSES.get() };
+    }
+
+    /** Return a one-line report of the hits and misses of every store in
+     *  this process since the counts were BEFORE. */
+    static String cacheReport(long[] before) {
+        return String.format("Commit cache: %d hits, %d misses "
+            + "(at most %d commits per repository).",
+            HITS.get() - before[0], MISSES.get() - before[1], CACHE_SIZE);
+    }
+
+    /** Record commit C, writing it out if it is new. */
+    void put(Commit c) {
+        String id = c.toSha1();
+        boolean fresh = !_store.contains(id);
+        c.attach(_objects);
+        synchronized (_loaded) {
+            _loaded.put(id, c);
+        }
+        _store.put(id, c.encode());
+        if (!_index.exists()) {
+            _index.rebuild(ids());
+        } else if (fresh) {
+            _index.add(id);
+        }
+        if (!_messages.exists()) {
+            indexMessages();
+        } else if (fresh) {
+            HashMap<String, String> message = new HashMap<String, String>();
+            message.put(id, c.getMessage());
+            _messages.addAll(message);
+        }
+        if (contains(c.getParent1()) || c.isRoot()) {
+            _graph.position(id);
+        }
+    }
+
+    /** Return true iff commit ANCESTOR is commit DESCENDANT or one of
+     *  its ancestors. */
+    boolean isAncestor(String ancestor, String descendant) {
+        return _graph.isAncestor(ancestor, descendant);
+    }
+
+    /** Return the latest common ancestor of commits A and B, or null if
+     *  they have none. */
+    Commit mergeBase(String a, String b) {
+        String id = _graph.mergeBase(a, b);
+        return id == null ? null : get(id);
+    }
+
+    /** Return the ids of commits whose message is exactly MESSAGE. */
+    List<String> withMessage(String message) {
+        if (!_messages.exists()) {
+            indexMessages();
+        }
+        return _messages.exact(message);
+    }
+
+    /** Return the ids of commits whose messages contain every word of
+     *  WORDS, ignoring case. */
+    List<String> withWords(String words) {
+        if (!_messages.exists()) {
+            indexMessages();
+        }
+        return _messages.words(words);
+    }
+
+    /** Return the ids of commits whose messages contain TEXT. */
+    List<String> withSubstring(String text) {
+        if (!_messages.exists()) {
+            indexMessages();
+        }
+        List<String> candidates = text.length() < MessageIndex.GRAM
+            ? ids() : _messages.candidates(text);
+        List<String> result = new ArrayList<String>();
+        for (String id : candidates) {
+            if (get(id).getMessage().contains(text)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /** Build the message index from every commit in the store. */
+    private void indexMessages() {
+        HashMap<String, String> messages = new HashMap<String, String>();
+        for (String id : ids()) {
+            messages.put(id, get(id).getMessage());
+        }
+        _messages.addAll(messages);
+    }
+
+    /** Return up to LIMIT ids of commits whose ids start with PREFIX, in
+     *  increasing order. */
+    List<String> find(String prefix, int limit) {
+        if (!_index.exists()) {
+            _index.rebuild(ids());
+        }
+        return _index.find(prefix, limit);
+    }
+
+    /** Return the ids of all commits, newest first, without reading
+     *  them.  Commits made before the commit graph existed are added to
+     *  it the first time this is asked. */
+    List<String> newestFirst() {
+        if (!_index.exists()) {
+            _index.rebuild(ids());
+        }
+        if (_graph.size() < _index.size()) {
+            for (String id : _index.ids()) {
+                _graph.position(id);
+            }
+        }
+        return _graph.newestFirst();
+    }
+
+    /** Flush every commit written since the last call to disk. */
+    void sync() {
+        _store.sync();
+    }
+
+    /** Return the ids of all commits.  Scans the whole store. */
+    List<String> ids() {
+        return _store.ids();
+    }
+}
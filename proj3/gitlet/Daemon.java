@@ -0,0 +1,231 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/** A long-running server that runs Gitlet commands for one repository,
+ *  so that a script issuing many commands pays for starting a JVM and
+ *  warming its caches once.  It listens on the Unix-domain socket
+ *  .gitlet/daemon.sock and runs one command at a time, reading the
+ *  repository afresh for each, exactly as a separate process would;
+ *  what it keeps between commands is compiled code and the commits it
+ *  has already decoded, which never change.
+ *
+ *  A request is the number of arguments followed by each argument, as
+ *  by DataOutputStream.writeUTF, and then the number of environment
+ *  variables followed by the name and value of each: those of
+ *  Main.ENVIRONMENT that are set where the command was typed, which
+ *  the command sees instead of the daemon's own.  The reply is a
+ *  sequence of frames, a tag byte (OUT or ERR) followed by a length
+ *  and that many bytes of the command's standard output or error, and
+ *  then the tag END.
+ *  @author Laiming Huang
+ */
+class Daemon {
+
+    /** Name of the socket within the repository directory. */
+    static final String SOCKET = "daemon.sock";
+    /** Tag of the frame that ends a reply. */
+    static final int END = 0;
+    /** Tag of a frame of standard output. */
+    static final int OUT = 1;
+    /** Tag of a frame of standard error. */
+    static final int ERR = 2;
+
+    /** True while this process is serving commands. */
+    private static boolean _serving;
+    /** True once the daemon has been asked to stop. */
+    private static boolean _stopping;
+
+    /** Return the socket of the repository in the current directory. */
+    static File socket() {
+        return Utils.join(Repo.GITLET_DIR, SOCKET);
+    }
+
+    /** Send the command ARGS to the daemon of the repository in the
+     *  current directory, with this process's ENVIRONMENT variables,
+     *  and copy its output here.  Return false, having done nothing, if
+     *  no daemon is running or the command must run in this process.
+     *  If the connection fails once the command is sent, say so: the
+     *  command may or may not have run. */
+    static boolean forward(String[] args) {
+        if (args.length == 0 || args[0].equals("init")
+            || (args[0].equals("daemon") && args.length == 1)
+            || !socket().exists()) {
+            return false;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(
+                UnixDomainSocketAddress.of(socket().toPath()));
+        } catch (IOException excp) {
+            return false;
+        }
+        try (channel) {
+            DataOutputStream request = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel)));
+            request.writeInt(args.length);
+            for (String arg : args) {
+                request.writeUTF(arg);
+            }
+            Map<String, String> env = Main.environment();
+            request.writeInt(env.size());
+            for (Map.Entry<String, String> entry : env.entrySet()) {
+                request.writeUTF(entry.getKey());
+                request.writeUTF(entry.getValue());
+            }
+            request.flush();
+            DataInputStream reply = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(channel),
+                    ObjectStore.BUFFER_SIZE));
+            OutputStream out = new FileOutputStream(FileDescriptor.out);
+            OutputStream err = new FileOutputStream(FileDescriptor.err);
+            for (int tag = reply.read(); tag != END; tag = reply.read()) {
+                if (tag < 0) {
+                    throw new EOFException();
+                }
+                byte[] frame = new byte[reply.readInt()];
+                reply.readFully(frame);
+                (tag == OUT ? out : err).write(frame);
+            }
+        } catch (IOException excp) {
+            System.out.println("Lost the connection to the daemon; "
+                + "the command may not have finished.");
+        }
+        return true;
+    }
+
+    /** Serve commands on the socket of the repository in the current
+     *  directory until asked to stop. */
+    static void serve() {
+        File socket = socket();
+        if (socket.exists()) {
+            try (SocketChannel running = SocketChannel.open(
+                     UnixDomainSocketAddress.of(socket.toPath()))) {
+                throw new GitletException("A daemon is already running.");
+            } catch (IOException excp) {
+                socket.delete();
+            }
+        }
+        try (ServerSocketChannel server =
+                 ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket.toPath()));
+            _serving = true;
+            _stopping = false;
+            while (!_stopping) {
+                try (SocketChannel client = server.accept()) {
+                    handle(client);
+                } catch (IOException excp) {
+                    continue;
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            _serving = false;
+            socket.delete();
+        }
+    }
+
+    /** Stop serving once the current command is answered. */
+    static void stop() {
+        if (!_serving) {
+            throw new GitletException("No daemon is running.");
+        }
+        _stopping = true;
+    }
+
+    /** Run the command CLIENT sends, sending back its output. */
+    private static void handle(SocketChannel client) throws IOException {
+        DataInputStream request = new DataInputStream(
+            new BufferedInputStream(Channels.newInputStream(client)));
+        String[] args = new String[request.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = request.readUTF();
+        }
+        HashMap<String, String> env = new HashMap<String, String>();
+        for (int n = request.readInt(); n > 0; n -= 1) {
+            String name = request.readUTF();
+            env.put(name, request.readUTF());
+        }
+        DataOutputStream reply = new DataOutputStream(new BufferedOutputStream(
+            Channels.newOutputStream(client), ObjectStore.BUFFER_SIZE));
+        PrintStream out = new PrintStream(new Frames(reply, OUT), true,
+            StandardCharsets.UTF_8);
+        PrintStream err = new PrintStream(new Frames(reply, ERR), true,
+            StandardCharsets.UTF_8);
+        PrintStream oldOut = System.out, oldErr = System.err;
+        OutputStream oldOutput = Main.output();
+        System.setOut(out);
+        System.setErr(err);
+        Main.setOutput(new Frames(reply, OUT));
+        Main.setEnvironment(env);
+        try {
+            Main.run(args);
+        } catch (IOException | RuntimeException excp) {
+            out.println(excp.getMessage() == null ? "Internal error."
+                : excp.getMessage());
+        } finally {
+            out.flush();
+            err.flush();
+            System.setOut(oldOut);
+            System.setErr(oldErr);
+            Main.setOutput(oldOutput);
+            Main.setEnvironment(null);
+        }
+        reply.write(END);
+        reply.flush();
+    }
+
+    /** An output stream sending what is written to it as frames with a
+     *  given tag. */
+    private static class Frames extends OutputStream {
+
+        /** Where the frames go. */
+        private final DataOutputStream _out;
+        /** Tag of every frame. */
+        private final int _tag;
+
+        /** A stream sending frames tagged TAG to OUT. */
+        Frames(DataOutputStream out, int tag) {
+            _out = out;
+            _tag = tag;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > 0) {
+                _out.write(_tag);
+                _out.writeInt(len);
+                _out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            _out.flush();
+        }
+    }
+}
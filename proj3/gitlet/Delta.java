@@ -0,0 +1,115 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** Byte-level deltas between two versions of a file.  A delta is a
+ *  sequence of instructions that rebuild the target from the base:
+ *  COPY an offset and length of the base, or INSERT literal bytes.
+ *  Matches are found by indexing the base in BLOCK-byte blocks and
+ *  extending each hit as far as both versions agree, so a one-line
+ *  change to a large file costs a few bytes rather than the file.
+ *  @author Laiming Huang
+ */
+class Delta {
+
+    /** Size of the blocks of the base that are indexed. */
+    static final int BLOCK = 16;
+    /** Instruction copying from the base. */
+    private static final byte COPY = 0;
+    /** Instruction inserting literal bytes. */
+    private static final byte INSERT = 1;
+
+    /** Return a delta that rebuilds TARGET from BASE. */
+    static byte[] create(byte[] base, byte[] target) {
+        HashMap<Integer, Integer> blocks = new HashMap<Integer, Integer>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(target.length);
+            int pending = 0;
+            int i = 0;
+            while (i + BLOCK <= target.length) {
+                Integer start = blocks.get(hash(target, i));
+                if (start == null || !Arrays.equals(base, start,
+                        start + BLOCK, target, i, i + BLOCK)) {
+                    i += 1;
+                    continue;
+                }
+                int from = start, to = i;
+                while (from > 0 && to > pending
+                       && base[from - 1] == target[to - 1]) {
+                    from -= 1;
+                    to -= 1;
+                }
+                int length = i + BLOCK - to;
+                while (from + length < base.length
+                       && to + length < target.length
+                       && base[from + length] == target[to + length]) {
+                    length += 1;
+                }
+                insert(out, target, pending, to);
+                out.writeByte(COPY);
+                out.writeInt(from);
+                out.writeInt(length);
+                i = pending = to + length;
+            }
+            insert(out, target, pending, target.length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Return the target that DELTA rebuilds from BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        try (DataInputStream in =
+                 new DataInputStream(new ByteArrayInputStream(delta))) {
+            byte[] result = new byte[in.readInt()];
+            int pos = 0;
+            while (pos < result.length) {
+                byte op = in.readByte();
+                if (op == COPY) {
+                    int from = in.readInt();
+                    int length = in.readInt();
+                    System.arraycopy(base, from, result, pos, length);
+                    pos += length;
+                } else {
+                    int length = in.readInt();
+                    in.readFully(result, pos, length);
+                    pos += length;
+                }
+            }
+            return result;
+        } catch (IOException | IndexOutOfBoundsException excp) {
+            throw Utils.error("Corrupt delta.");
+        }
+    }
+
+    /** Write an instruction inserting TARGET[FROM .. TO), if nonempty,
+     *  to OUT. */
+    private static void insert(DataOutputStream out, byte[] target,
+                               int from, int to) throws IOException {
+        if (from < to) {
+            out.writeByte(INSERT);
+            out.writeInt(to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    /** Return a hash of the BLOCK bytes of DATA starting at START. */
+    private static int hash(byte[] data, int start) {
+        int result = 0;
+        for (int i = start; i < start + BLOCK; i += 1) {
+            result = 31 * result + data[i];
+        }
+        return result;
+    }
+}
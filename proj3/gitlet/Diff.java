@@ -0,0 +1,186 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Line diffs by Myers' O(ND) algorithm, in its linear-space form: the
+ *  middle snake of the edit graph is found by searching forward and
+ *  backward at once, and the two halves on either side of it are
+ *  diffed in turn.  Lines are compared by their hashes (see Lines).
+ *  @author Laiming Huang
+ */
+class Diff {
+
+    /** A maximal run of changed lines: lines [aStart, aEnd) of the first
+     *  file were replaced by lines [bStart, bEnd) of the second.  Either
+     *  range may be empty. */
+    static class Hunk {
+        /** Bounds of the hunk in the first file. */
+        final int aStart, aEnd;
+        /** Bounds of the hunk in the second file. */
+        final int bStart, bEnd;
+
+        /** The hunk replacing A[ASTART, AEND) by B[BSTART, BEND). */
+        Hunk(int aStart, int aEnd, int bStart, int bEnd) {
+            this.aStart = aStart;
+            this.aEnd = aEnd;
+            this.bStart = bStart;
+            this.bEnd = bEnd;
+        }
+    }
+
+    /** Diagonals searched each way before the first widening.  The
+     *  search arrays grow with the edit distance found, not with the
+     *  lengths of the files, so long files with few changes stay
+     *  cheap. */
+    private static final int INITIAL_RANGE = 64;
+
+    /** First file. */
+    private final long[] _a;
+    /** Second file. */
+    private final long[] _b;
+    /** Hunks found so far, in order. */
+    private final List<Hunk> _hunks = new ArrayList<Hunk>();
+
+    /** A diff of the files whose line hashes are A and B. */
+    private Diff(long[] a, long[] b) {
+        _a = a;
+        _b = b;
+    }
+
+    /** Return the hunks that turn the file with line hashes A into the
+     *  one with line hashes B, in order.  Lines outside every hunk are
+     *  common to both, and no two hunks touch. */
+    static List<Hunk> diff(long[] a, long[] b) {
+        try (Trace.Span span = Trace.span("line diff")) {
+            Diff d = new Diff(a, b);
+            d.diff(0, a.length, 0, b.length);
+            return d._hunks;
+        }
+    }
+
+    /** Add the hunks turning A[ALO, AHI) into B[BLO, BHI). */
+    private void diff(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && _a[aLo] == _b[bLo]) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && _a[aHi - 1] == _b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            add(aLo, aHi, bLo, bHi);
+            return;
+        }
+        int[] snake = middle(aLo, aHi, bLo, bHi);
+        if (snake == null) {
+            add(aLo, aHi, bLo, bHi);
+        } else {
+            diff(aLo, snake[0], bLo, snake[1]);
+            diff(snake[0], aHi, snake[1], bHi);
+        }
+    }
+
+    /** Return a point {x, y} on a middle snake of an optimal path from
+     *  (ALO, BLO) to (AHI, BHI), both ranges being nonempty, or null if
+     *  the ranges have nothing in common. */
+    private int[] middle(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo, m = bHi - bLo;
+        int maxD = (n + m + 1) / 2;
+        int offset = Math.min(maxD, INITIAL_RANGE), length = 2 * offset + 2;
+        int[] forward = new int[length], backward = new int[length];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        boolean odd = delta % 2 != 0;
+        int fStart = 0, fEnd = 0, bStart = 0, bEnd = 0;
+        for (int d = 0; d < maxD; d += 1) {
+            if (d + 1 > offset) {
+                int wider = Math.min(maxD, 2 * offset);
+                forward = widen(forward, offset, wider);
+                backward = widen(backward, offset, wider);
+                offset = wider;
+                length = 2 * offset + 2;
+            }
+            for (int k = -d + fStart; k <= d - fEnd; k += 2) {
+                int i = offset + k;
+                int x = k == -d || (k != d && forward[i - 1] < forward[i + 1])
+                    ? forward[i + 1] : forward[i - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && _a[aLo + x] == _b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[i] = x;
+                if (x > n) {
+                    fEnd += 2;
+                } else if (y > m) {
+                    fStart += 2;
+                } else if (odd) {
+                    int j = offset + delta - k;
+                    if (j >= 0 && j < length && backward[j] != -1
+                        && x >= n - backward[j]) {
+                        return new int[] {aLo + x, bLo + y};
+                    }
+                }
+            }
+            for (int k = -d + bStart; k <= d - bEnd; k += 2) {
+                int j = offset + k;
+                int x = k == -d
+                    || (k != d && backward[j - 1] < backward[j + 1])
+                    ? backward[j + 1] : backward[j - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m
+                       && _a[aHi - x - 1] == _b[bHi - y - 1]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[j] = x;
+                if (x > n) {
+                    bEnd += 2;
+                } else if (y > m) {
+                    bStart += 2;
+                } else if (!odd) {
+                    int i = offset + delta - k;
+                    if (i >= 0 && i < length && forward[i] != -1) {
+                        int fx = forward[i];
+                        int fy = fx - (i - offset);
+                        if (fx >= n - x) {
+                            return new int[] {aLo + fx, bLo + fy};
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Return V, whose diagonal 0 is at OFFSET, recentered on WIDER, with
+     *  the new diagonals unvisited. */
+    private static int[] widen(int[] v, int offset, int wider) {
+        int[] result = new int[2 * wider + 2];
+        Arrays.fill(result, -1);
+        System.arraycopy(v, 0, result, wider - offset, v.length);
+        return result;
+    }
+
+    /** Add the hunk replacing A[ALO, AHI) by B[BLO, BHI), if it is not
+     *  empty, joining it to the previous hunk if they touch. */
+    private void add(int aLo, int aHi, int bLo, int bHi) {
+        if (aLo == aHi && bLo == bHi) {
+            return;
+        }
+        int last = _hunks.size() - 1;
+        if (last >= 0 && _hunks.get(last).aEnd == aLo
+            && _hunks.get(last).bEnd == bLo) {
+            Hunk prev = _hunks.remove(last);
+            aLo = prev.aStart;
+            bLo = prev.bStart;
+        }
+        _hunks.add(new Hunk(aLo, aHi, bLo, bHi));
+    }
+}
@@ -0,0 +1,110 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/** Prints the differences between versions of files as unified diffs,
+ *  with CONTEXT unchanged lines around each change.  Each version is
+ *  read twice as a stream: once to hash its lines for Diff, and once to
+ *  copy out the lines that are printed.
+ *  @author Laiming Huang
+ */
+class DiffWriter implements AutoCloseable {
+
+    /** Unchanged lines shown before and after each change. */
+    static final int CONTEXT = 3;
+
+    /** One version of a file, which may be opened more than once. */
+    interface Source {
+        /** Return a new stream of the contents. */
+        InputStream open() throws IOException;
+    }
+
+    /** Where the diffs go. */
+    private final OutputStream _out;
+
+    /** A writer printing to OUT. */
+    DiffWriter(OutputStream out) {
+        _out = new BufferedOutputStream(out, ObjectStore.BUFFER_SIZE);
+    }
+
+    /** Print the differences between versions BEFORE and AFTER of the
+     *  file NAME.  A null version is an absent file.  Prints nothing if
+     *  the versions have the same lines. */
+    void write(String name, Source before, Source after) throws IOException {
+        long[] a = before == null ? new long[0]
+            : Lines.hashes(before.open());
+        long[] b = after == null ? new long[0] : Lines.hashes(after.open());
+        List<Diff.Hunk> hunks = Diff.diff(a, b);
+        if (hunks.isEmpty() && (before == null) == (after == null)) {
+            return;
+        }
+        print("diff --git a/" + name + " b/" + name + "\n");
+        if (before == null) {
+            print("new file\n");
+        } else if (after == null) {
+            print("deleted file\n");
+        }
+        print("--- " + (before == null ? "/dev/null" : "a/" + name) + "\n");
+        print("+++ " + (after == null ? "/dev/null" : "b/" + name) + "\n");
+        try (Lines la = new Lines(before == null
+                 ? InputStream.nullInputStream() : before.open());
+             Lines lb = new Lines(after == null
+                 ? InputStream.nullInputStream() : after.open())) {
+            int aPos = 0, bPos = 0;
+            for (int first = 0, last; first < hunks.size(); first = last) {
+                last = first + 1;
+                while (last < hunks.size() && hunks.get(last).aStart
+                       - hunks.get(last - 1).aEnd <= 2 * CONTEXT) {
+                    last += 1;
+                }
+                Diff.Hunk h0 = hunks.get(first), h1 = hunks.get(last - 1);
+                int aFrom = Math.max(0, h0.aStart - CONTEXT);
+                int aTo = Math.min(a.length, h1.aEnd + CONTEXT);
+                int bFrom = h0.bStart - (h0.aStart - aFrom);
+                int bTo = h1.bEnd + (aTo - h1.aEnd);
+                print("@@ -" + range(aFrom, aTo) + " +" + range(bFrom, bTo)
+                    + " @@\n");
+                la.skip(aFrom - aPos);
+                lb.skip(bFrom - bPos);
+                int at = aFrom;
+                for (int k = first; k < last; k += 1) {
+                    Diff.Hunk h = hunks.get(k);
+                    la.print(h.aStart - at, (byte) ' ', _out);
+                    lb.skip(h.aStart - at);
+                    la.print(h.aEnd - h.aStart, (byte) '-', _out);
+                    lb.print(h.bEnd - h.bStart, (byte) '+', _out);
+                    at = h.aEnd;
+                }
+                la.print(aTo - at, (byte) ' ', _out);
+                lb.skip(aTo - at);
+                aPos = aTo;
+                bPos = bTo;
+            }
+        }
+    }
+
+    /** Return the lines [FROM, TO) as a unified diff range. */
+    private static String range(int from, int to) {
+        if (to - from == 1) {
+            return Integer.toString(to);
+        } else if (to == from) {
+            return from + ",0";
+        }
+        return (from + 1) + "," + (to - from);
+    }
+
+    /** Print S. */
+    private void print(String s) throws IOException {
+        _out.write(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void close() throws IOException {
+        _out.flush();
+    }
+}
@@ -0,0 +1,34 @@
+package gitlet;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/** The staging index: files staged for addition and for removal.
+ *  Saved on its own so that commands touching only the staging area
+ *  do not read or write any commit.
+ *  @author Laiming Huang
+ */
+class Index implements Serializable {
+
+    /** Files staged for addition, name to blob id. */
+    private HashMap<String, String> _staged;
+    /** Files staged for removal. */
+    private HashSet<String> _removed;
+
+    /** An empty index. */
+    Index() {
+        _staged = new HashMap<String, String>();
+        _removed = new HashSet<String>();
+    }
+
+    /** Return the files staged for addition. */
+    HashMap<String, String> staged() {
+        return _staged;
+    }
+
+    /** Return the files staged for removal. */
+    HashSet<String> removed() {
+        return _removed;
+    }
+}
@@ -0,0 +1,156 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/** Three-way merges of file contents, line by line.  Each side is
+ *  diffed against the common ancestor; changes made by only one side
+ *  are taken as they are, as are identical changes made by both.  Only
+ *  where the two sides changed the same or adjacent lines differently
+ *  is the result marked as a conflict, around just those lines:
+ *
+ *      <<<<<<< HEAD
+ *      (the current branch's lines)
+ *      =======
+ *      (the given branch's lines)
+ *      >>>>>>>
+ *
+ *  Only the line hashes of the three versions are held in memory; the
+ *  merged text is streamed from the two sides to the output.
+ *  @author Laiming Huang
+ */
+class LineMerge {
+
+    /** Marks the start of a conflict. */
+    static final String OURS_MARKER = "<<<<<<< HEAD\n";
+    /** Separates the two sides of a conflict. */
+    static final String SEPARATOR = "=======\n";
+    /** Marks the end of a conflict. */
+    static final String THEIRS_MARKER = ">>>>>>>\n";
+
+    /** Where the versions are kept. */
+    private final ObjectStore _objects;
+
+    /** A merger of versions kept in OBJECTS. */
+    LineMerge(ObjectStore objects) {
+        _objects = objects;
+    }
+
+    /** Write to OUT the merge of the objects OURS and THEIRS, whose
+     *  common ancestor is the object BASE.  A null BASE is an empty
+     *  ancestor; a null OURS or THEIRS is a deleted file, and the other
+     *  side conflicts with it as a whole.  Return true iff there are
+     *  conflicts. */
+    boolean merge(String base, String ours, String theirs,
+                  OutputStream out) throws IOException {
+        if (ours == null || theirs == null) {
+            out.write(bytes(OURS_MARKER));
+            copy(ours, out);
+            out.write(bytes(SEPARATOR));
+            copy(theirs, out);
+            out.write(bytes(THEIRS_MARKER));
+            return true;
+        }
+        long[] o = base == null ? new long[0]
+            : Lines.hashes(_objects.open(base));
+        long[] a = Lines.hashes(_objects.open(ours));
+        long[] b = Lines.hashes(_objects.open(theirs));
+        List<Diff.Hunk> oursHunks = Diff.diff(o, a);
+        List<Diff.Hunk> theirsHunks = Diff.diff(o, b);
+        boolean conflict = false;
+        try (Lines la = new Lines(_objects.open(ours));
+             Lines lb = new Lines(_objects.open(theirs))) {
+            int i = 0, j = 0, oPos = 0, aPos = 0, bPos = 0;
+            while (i < oursHunks.size() || j < theirsHunks.size()) {
+                int oLo = Math.min(start(oursHunks, i), start(theirsHunks, j));
+                int oHi = oLo, aGrowth = 0, bGrowth = 0;
+                boolean fromA = false, fromB = false, grew = true;
+                while (grew) {
+                    grew = false;
+                    if (i < oursHunks.size()
+                        && oursHunks.get(i).aStart <= oHi) {
+                        Diff.Hunk h = oursHunks.get(i++);
+                        oHi = Math.max(oHi, h.aEnd);
+                        aGrowth += growth(h);
+                        fromA = grew = true;
+                    }
+                    if (j < theirsHunks.size()
+                        && theirsHunks.get(j).aStart <= oHi) {
+                        Diff.Hunk h = theirsHunks.get(j++);
+                        oHi = Math.max(oHi, h.aEnd);
+                        bGrowth += growth(h);
+                        fromB = grew = true;
+                    }
+                }
+                int same = oLo - oPos;
+                la.copy(same, out);
+                lb.skip(same);
+                aPos += same;
+                bPos += same;
+                int aLen = oHi - oLo + aGrowth, bLen = oHi - oLo + bGrowth;
+                if (!fromB || (fromA && equal(a, aPos, b, bPos, aLen, bLen))) {
+                    la.copy(aLen, out);
+                    lb.skip(bLen);
+                } else if (!fromA) {
+                    la.skip(aLen);
+                    lb.copy(bLen, out);
+                } else {
+                    out.write(bytes(OURS_MARKER));
+                    la.copy(aLen, out);
+                    out.write(bytes(SEPARATOR));
+                    lb.copy(bLen, out);
+                    out.write(bytes(THEIRS_MARKER));
+                    conflict = true;
+                }
+                oPos = oHi;
+                aPos += aLen;
+                bPos += bLen;
+            }
+            la.copy(a.length - aPos, out);
+        }
+        return conflict;
+    }
+
+    /** Copy the object ID, if not null, to OUT. */
+    private void copy(String id, OutputStream out) throws IOException {
+        if (id != null) {
+            try (InputStream in = _objects.open(id)) {
+                in.transferTo(out);
+            }
+        }
+    }
+
+    /** Return the start in the ancestor of HUNKS[K], or the largest int
+     *  if there is none. */
+    private static int start(List<Diff.Hunk> hunks, int k) {
+        return k < hunks.size() ? hunks.get(k).aStart : Integer.MAX_VALUE;
+    }
+
+    /** Return how many lines longer H makes its file. */
+    private static int growth(Diff.Hunk h) {
+        return (h.bEnd - h.bStart) - (h.aEnd - h.aStart);
+    }
+
+    /** Return true iff the ALEN lines of A from AFROM are the same as
+     *  the BLEN lines of B from BFROM. */
+    private static boolean equal(long[] a, int aFrom, long[] b, int bFrom,
+                                 int aLen, int bLen) {
+        if (aLen != bLen) {
+            return false;
+        }
+        for (int k = 0; k < aLen; k += 1) {
+            if (a[aFrom + k] != b[bFrom + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return S as UTF-8. */
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
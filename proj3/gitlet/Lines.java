@@ -0,0 +1,146 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** Reads a file one line at a time, as raw bytes, without holding more
+ *  than a buffer of it in memory.  A line is everything up to and
+ *  including a newline, or the bytes after the last newline.  Diffs
+ *  and merges compare files by the 64-bit hashes of their lines and
+ *  then stream the lines they keep from the files themselves.
+ *  @author Laiming Huang
+ */
+class Lines implements AutoCloseable {
+
+    /** Where the lines come from. */
+    private final InputStream _in;
+    /** Bytes read from _in but not yet consumed. */
+    private final byte[] _buffer = new byte[ObjectStore.BUFFER_SIZE];
+    /** Position of the next unconsumed byte in _buffer. */
+    private int _pos;
+    /** Number of valid bytes in _buffer. */
+    private int _limit;
+
+    /** Lines read from IN. */
+    Lines(InputStream in) {
+        _in = in;
+    }
+
+    /** Copy the next N lines to OUT, stopping early at the end. */
+    void copy(int n, OutputStream out) throws IOException {
+        for (int i = 0; i < n && fill(); i += 1) {
+            boolean ended = false;
+            while (!ended && fill()) {
+                int end = lineEnd();
+                ended = end < _limit;
+                end = ended ? end + 1 : end;
+                out.write(_buffer, _pos, end - _pos);
+                _pos = end;
+            }
+        }
+    }
+
+    /** Copy the next N lines to OUT, each after PREFIX and ending in a
+     *  newline; a last line that had none is followed by a note saying
+     *  so, as in a unified diff. */
+    void print(int n, byte prefix, OutputStream out) throws IOException {
+        for (int i = 0; i < n && fill(); i += 1) {
+            out.write(prefix);
+            boolean ended = false;
+            while (!ended && fill()) {
+                int end = lineEnd();
+                ended = end < _limit;
+                out.write(_buffer, _pos, end - _pos);
+                _pos = ended ? end + 1 : end;
+            }
+            out.write('\n');
+            if (!ended) {
+                out.write(NO_NEWLINE);
+            }
+        }
+    }
+
+    /** Skip the next N lines. */
+    void skip(int n) throws IOException {
+        for (int i = 0; i < n && fill(); i += 1) {
+            boolean ended = false;
+            while (!ended && fill()) {
+                int end = lineEnd();
+                ended = end < _limit;
+                _pos = ended ? end + 1 : end;
+            }
+        }
+    }
+
+    /** Return the position in _buffer of the next newline at or after
+     *  _pos, or _limit if there is none. */
+    private int lineEnd() {
+        int end = _pos;
+        while (end < _limit && _buffer[end] != '\n') {
+            end += 1;
+        }
+        return end;
+    }
+
+    /** Make sure _buffer has an unconsumed byte, reading more if need
+     *  be.  Return false iff the stream is at its end. */
+    private boolean fill() throws IOException {
+        while (_pos == _limit) {
+            _pos = 0;
+            _limit = _in.read(_buffer);
+            if (_limit < 0) {
+                _limit = 0;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        _in.close();
+    }
+
+    /** Return the hashes of the lines of IN, in order, reading it once
+     *  and closing it.  Equal lines have equal hashes; different lines
+     *  have equal hashes with negligible probability. */
+    static long[] hashes(InputStream in) throws IOException {
+        long[] result = new long[64];
+        int n = 0;
+        long hash = FNV_BASIS;
+        boolean partial = false;
+        byte[] buffer = new byte[ObjectStore.BUFFER_SIZE];
+        try (Trace.Span span = Trace.span("hash lines"); in) {
+            for (int k = in.read(buffer); k >= 0; k = in.read(buffer)) {
+                for (int i = 0; i < k; i += 1) {
+                    hash = (hash ^ (buffer[i] & 0xff)) * FNV_PRIME;
+                    partial = true;
+                    if (buffer[i] == '\n') {
+                        if (n == result.length) {
+                            result = Arrays.copyOf(result, 2 * n);
+                        }
+                        result[n++] = hash;
+                        hash = FNV_BASIS;
+                        partial = false;
+                    }
+                }
+            }
+        }
+        if (partial) {
+            result = Arrays.copyOf(result, n + 1);
+            result[n++] = hash;
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Printed after a last line that has no newline. */
+    private static final byte[] NO_NEWLINE =
+        "\\ No newline at end of file\n".getBytes(StandardCharsets.UTF_8);
+    /** Starting value of the FNV-1a hash. */
+    private static final long FNV_BASIS = 0xcbf29ce484222325L;
+    /** Multiplier of the FNV-1a hash. */
+    private static final long FNV_PRIME = 0x100000001b3L;
+}
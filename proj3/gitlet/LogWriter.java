@@ -0,0 +1,100 @@
+package gitlet;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/** Prints log entries through one buffer, one commit at a time, so that
+ *  a caller can walk history and print as it goes.  Each call to write
+ *  reports whether the walk should go on: it stops once LIMIT entries
+ *  are written, once a commit is older than SINCE, or once the output
+ *  has been closed, as when the log is piped into head.
+ *
+ *  The two commands print slightly different forms, as they always
+ *  have: log shows a Merge line for merge commits and puts a blank line
+ *  between entries; global-log shows no Merge lines and puts a blank
+ *  line after every entry, the last one included.
+ *  @author Laiming Huang
+ */
+class LogWriter {
+
+    /** Size of the output buffer. */
+    static final int BUFFER_SIZE = 1 << 16;
+    /** LIMIT meaning no limit. */
+    static final int UNLIMITED = Integer.MAX_VALUE;
+    /** SINCE meaning all time. */
+    static final long ALL_TIME = Long.MIN_VALUE;
+
+    /** Where entries go. */
+    private final Writer _out;
+    /** Entries still allowed. */
+    private int _remaining;
+    /** Earliest commit time, in milliseconds, to print. */
+    private final long _since;
+    /** True iff this prints global-log's form rather than log's. */
+    private final boolean _global;
+    /** True once an entry has been written. */
+    private boolean _started;
+    /** True once the output has failed. */
+    private boolean _closed;
+
+    /** A writer to the standard output printing at most LIMIT entries,
+     *  none for commits made before SINCE (in milliseconds), in
+     *  global-log's form iff GLOBAL. */
+    LogWriter(int limit, long since, boolean global) {
+        this(new OutputStreamWriter(Main.output(), StandardCharsets.UTF_8),
+            limit, since, global);
+    }
+
+    /** A writer to OUT printing at most LIMIT entries, none for commits
+     *  made before SINCE (in milliseconds), in global-log's form iff
+     *  GLOBAL. */
+    LogWriter(Writer out, int limit, long since, boolean global) {
+        _out = new BufferedWriter(out, BUFFER_SIZE);
+        _remaining = limit;
+        _since = since;
+        _global = global;
+    }
+
+    /** Print the entry for C, and return true iff the walk should go on
+     *  to older commits. */
+    boolean write(Commit c) {
+        if (_closed || _remaining <= 0 || c.getTime().getTime() < _since) {
+            return false;
+        }
+        try {
+            if (_started && !_global) {
+                _out.write('\n');
+            }
+            _started = true;
+            _out.write("===\ncommit ");
+            _out.write(c.toSha1());
+            _out.write('\n');
+            if (!_global && c.getParent2() != null
+                && !c.getParent2().isEmpty()) {
+                _out.write("Merge: " + c.getParent1().substring(0, 7)
+                    + " " + c.getParent2().substring(0, 7) + "\n");
+            }
+            _out.write(c.timeToString());
+            _out.write('\n');
+            _out.write(c.getMessage());
+            _out.write(_global ? "\n\n" : "\n");
+        } catch (IOException excp) {
+            _closed = true;
+            return false;
+        }
+        _remaining -= 1;
+        return _remaining > 0;
+    }
+
+    /** Flush the remaining output. */
+    void close() {
+        try {
+            _out.flush();
+        } catch (IOException excp) {
+            _closed = true;
+        }
+    }
+}
@@ -1,7 +1,18 @@
 package gitlet;
 
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 
 /**
@@ -10,17 +21,117 @@ import java.io.IOException;
  * @author Laiming Huang
  */
 public class Main {
+    /**
+     * Where commands that stream their own output, such as log and
+     * diff, write it.
+     */
+    private static OutputStream _output =
+        new FileOutputStream(FileDescriptor.out);
+    /**
+     * Environment variables that change how a command runs, and so are
+     * sent along with a command forwarded to the daemon.
+     */
+    static final String[] ENVIRONMENT = {
+        Trace.VARIABLE, Checkout.MODE_VARIABLE
+    };
+    /**
+     * The values of the ENVIRONMENT variables for the current command,
+     * or null to use this process's own.
+     */
+    private static Map<String, String> _environment;
+
     /**
      * Usage: java gitlet.Main ARGS, where ARGS contains
-     * <COMMAND> <OPERAND> ....
+     * <COMMAND> <OPERAND> ....  The command is sent to the repository's
+     * daemon if one is running, and otherwise run here.
+     * Environment: GITLET_CHECKOUT=link makes checkout, reset and merge
+     * hard-link working files to the object store instead of copying
+     * them; such files are read-only, and must be replaced by a copy
+     * before being edited in place.  GITLET_TRACE turns on tracing (see
+     * Trace).
      */
     public static void main(String... args) throws IOException {
-        if (args.length == 0) {
-            System.err.println("Please enter a command.");
-            System.exit(0);
-        } else {
-            processCommand(args);
+        if (!Daemon.forward(args)) {
+            run(args);
+        }
+    }
+
+    /**
+     * Run a command in this process, printing its error message to the
+     * standard output if it fails, as gitlet prints every error, and
+     * tracing it if GITLET_TRACE is set.  Any lock the command still
+     * holds, as when it failed before saving, is released afterwards,
+     * so later commands run in this process can take it again.
+     * @param args The arguments.
+     * @throws IOException
+     */
+    static void run(String... args) throws IOException {
+        String command = args.length == 0 ? "gitlet"
+            : "gitlet " + String.join(" ", args);
+        Trace.start();
+        try (Trace.Span span = Trace.span(command)) {
+            if (args.length == 0) {
+                throw new GitletException("Please enter a command.");
+            } else {
+                processCommand(args);
+            }
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        } finally {
+            RepoLock.releaseAll();
+            Trace.finish(command);
+        }
+    }
+
+    /**
+     * The stream commands write streamed output to.
+     * @return the standard output, unless redirected.
+     */
+    static OutputStream output() {
+        return _output;
+    }
+
+    /**
+     * Redirect streamed output, as the daemon does for each command.
+     * @param out The new output.
+     */
+    static void setOutput(OutputStream out) {
+        _output = out;
+    }
+
+    /**
+     * The value of one of the ENVIRONMENT variables for the current
+     * command.
+     * @param name The variable.
+     * @return its value, or null if it is not set.
+     */
+    static String getenv(String name) {
+        return _environment == null ? System.getenv(name)
+            : _environment.get(name);
+    }
+
+    /**
+     * The values of the ENVIRONMENT variables in this process.
+     * @return the variables that are set, by name.
+     */
+    static HashMap<String, String> environment() {
+        HashMap<String, String> result = new HashMap<String, String>();
+        for (String name : ENVIRONMENT) {
+            if (System.getenv(name) != null) {
+                result.put(name, System.getenv(name));
+            }
         }
+        return result;
+    }
+
+    /**
+     * Run commands with the ENVIRONMENT variables in ENV rather than
+     * this process's own, as the daemon does for each command.
+     * @param env The variables, by name, or null to go back to this
+     *            process's own.
+     */
+    static void setEnvironment(Map<String, String> env) {
+        _environment = env;
     }
 
     /**
@@ -38,7 +149,7 @@ public class Main {
             init();
             break;
         case "add":
-            if (args.length != 2) {
+            if (args.length < 2) {
                 errOperand();
             }
             checkInitialization();
@@ -121,9 +232,94 @@ public class Main {
             checkInitialization();
             pull(args);
             break;
+        case "gc":
+            checkInitialization();
+            gc(args);
+            break;
+        case "diff":
+            checkInitialization();
+            diff(args);
+            break;
+        case "stats":
+            stats(args);
+            break;
+        case "daemon":
+            checkInitialization();
+            daemon(args);
+            break;
         default:
-            System.out.println("No command with that name exists.");
-            System.exit(0);
+            throw new GitletException("No command with that name exists.");
+        }
+    }
+
+    /**
+     * Execute stats command: "stats COMMAND ..." runs COMMAND and then,
+     * however it ends, reports how often commits were found in memory
+     * and how often they had to be read from disk.
+     * @param args The arguments.
+     * @throws IOException
+     */
+    private static void stats(String[] args) throws IOException {
+        if (args.length < 2) {
+            errOperand();
+        }
+        long[] before = CommitStore.cacheCounts();
+        try {
+            processCommand(Arrays.copyOfRange(args, 1, args.length));
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        }
+        System.out.println(CommitStore.cacheReport(before));
+    }
+
+    /**
+     * Execute daemon command: "daemon" serves commands for this
+     * repository until "daemon stop".
+     * @param args The arguments.
+     */
+    private static void daemon(String[] args) {
+        if (args.length == 1) {
+            Daemon.serve();
+        } else if (args.length == 2 && args[1].equals("stop")) {
+            Daemon.stop();
+        } else {
+            errOperand();
+        }
+    }
+
+    /**
+     * Execute diff command: "diff" compares the working directory with
+     * the head commit, "diff -- FILE" does so for one file, and
+     * "diff A B" compares two branches or commits.
+     * @param args The arguments.
+     * @throws IOException
+     */
+    private static void diff(String[] args) throws IOException {
+        if (args.length == 1) {
+            Repo.read().diff(null);
+        } else if (args.length == 3 && args[1].equals("--")) {
+            Repo.read().diff(args[2]);
+        } else if (args.length == 3) {
+            Repo.read().diff(args[1], args[2]);
+        } else {
+            errOperand();
+        }
+    }
+
+    /**
+     * Execute gc command.
+     * @param args The arguments.
+     */
+    private static void gc(String[] args) {
+        if (args.length != 1) {
+            errOperand();
+        } else {
+            Repo curr = Repo.readForUpdate();
+            try {
+                curr.gc();
+            } finally {
+                curr.release();
+            }
         }
     }
 
@@ -138,7 +334,7 @@ public class Main {
         } else {
             String remoteName = args[1];
             String rmBranchName = args[2];
-            Repo curr = Repo.read();
+            Repo curr = Repo.readForUpdate();
             curr.pull(remoteName, rmBranchName);
             Repo.save(curr);
         }
@@ -186,7 +382,7 @@ public class Main {
     private static void addRemote(String[] args) {
         String remoteName = args[1];
         String remoteDir = args[2];
-        Repo curr = Repo.read();
+        Repo curr = Repo.readForUpdate();
         curr.addRemote(remoteName, remoteDir);
         Repo.save(curr);
     }
@@ -201,7 +397,7 @@ public class Main {
             errOperand();
         } else {
             String remoteName = args[1];
-            Repo curr = Repo.read();
+            Repo curr = Repo.readForUpdate();
             curr.rmRemote(remoteName);
             Repo.save(curr);
         }
@@ -218,7 +414,7 @@ public class Main {
             errOperand();
         } else {
             String branch = args[1];
-            Repo curr = Repo.read();
+            Repo curr = Repo.readForUpdate();
             curr.merge(branch);
             Repo.save(curr);
         }
@@ -234,7 +430,7 @@ public class Main {
             errOperand();
         }
         checkInitialization();
-        Repo curr = Repo.read();
+        Repo curr = Repo.readForUpdate();
         String commit = args[1];
         curr.reset(commit);
         Repo.save(curr);
@@ -283,7 +479,7 @@ public class Main {
             if (!args[1].equals("--")) {
                 errOperand();
             } else {
-                Repo curr = Repo.read();
+                Repo curr = Repo.readForUpdate();
                 String fileName = args[2];
                 curr.checkoutByName(fileName);
                 Repo.save(curr);
@@ -292,14 +488,14 @@ public class Main {
             if (!args[2].equals("--")) {
                 errOperand();
             } else {
-                Repo curr = Repo.read();
+                Repo curr = Repo.readForUpdate();
                 String commit = args[1];
                 String fileName = args[3];
                 curr.checkoutLong(commit, fileName);
                 Repo.save(curr);
             }
         } else if (type == 1) {
-            Repo curr = Repo.read();
+            Repo curr = Repo.readForUpdate();
             String branch = args[1];
             curr.checkoutByBranch(branch);
             Repo.save(curr);
@@ -314,8 +510,8 @@ public class Main {
     private static void checkInitialization() {
         File gitlet = new File("./.gitlet");
         if (!gitlet.exists()) {
-            System.err.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw new GitletException(
+                "Not in an initialized Gitlet directory.");
         }
     }
 
@@ -337,8 +533,7 @@ public class Main {
      * Print "Incorrect operands" error message.
      */
     public static void errOperand() {
-        System.out.println("Incorrect operands.");
-        System.exit(0);
+        throw new GitletException("Incorrect operands.");
     }
 
     /**
@@ -347,7 +542,11 @@ public class Main {
      */
     private static void find(String[] args) {
         checkInitialization();
-        if (args.length != 2) {
+        if (args.length == 3 && args[1].equals("--words")) {
+            Repo.read().findWords(args[2]);
+        } else if (args.length == 3 && args[1].equals("--substring")) {
+            Repo.read().findSubstring(args[2]);
+        } else if (args.length != 2) {
             errOperand();
         } else {
             Repo curr = Repo.read();
@@ -362,11 +561,13 @@ public class Main {
      */
     private static void glog(String[] args) {
         checkInitialization();
-        if (args.length != 1) {
+        ArrayList<String> operands = new ArrayList<String>();
+        LogWriter out = logWriter(args, operands, true);
+        if (!operands.isEmpty()) {
             errOperand();
         } else {
             Repo curr = Repo.read();
-            curr.globalLog();
+            curr.globalLog(out);
         }
     }
 
@@ -376,14 +577,60 @@ public class Main {
      */
     private static void log(String[] args) {
         checkInitialization();
-        if (args.length != 1) {
+        ArrayList<String> operands = new ArrayList<String>();
+        LogWriter out = logWriter(args, operands, false);
+        if (operands.size() > 1) {
             errOperand();
+        } else if (operands.size() == 1) {
+            Repo.read().log(operands.get(0), out);
         } else {
             Repo curr = Repo.read();
-            curr.log();
+            curr.log(out);
         }
     }
 
+    /**
+     * Read the -n COUNT and --since DATE options of a log command.
+     * DATE is yyyy-mm-dd or yyyy-mm-ddThh:mm:ss, in local time.
+     * @param args The arguments.
+     * @param operands Receives the arguments that are not options.
+     * @param global True for global-log, false for log.
+     * @return A writer printing the entries the options ask for.
+     */
+    private static LogWriter logWriter(String[] args,
+                                       ArrayList<String> operands,
+                                       boolean global) {
+        int limit = LogWriter.UNLIMITED;
+        long since = LogWriter.ALL_TIME;
+        try {
+            for (int i = 1; i < args.length; i += 1) {
+                boolean option = args[i].equals("-n")
+                    || args[i].equals("--since");
+                if (option && i + 1 == args.length) {
+                    errOperand();
+                } else if (args[i].equals("-n")) {
+                    i += 1;
+                    limit = Integer.parseInt(args[i]);
+                } else if (args[i].equals("--since")) {
+                    i += 1;
+                    LocalDateTime time = args[i].contains("T")
+                        ? LocalDateTime.parse(args[i])
+                        : LocalDate.parse(args[i]).atStartOfDay();
+                    since = time.atZone(ZoneId.systemDefault())
+                        .toInstant().toEpochMilli();
+                } else {
+                    operands.add(args[i]);
+                }
+            }
+        } catch (NumberFormatException | DateTimeParseException excp) {
+            errOperand();
+        }
+        if (limit < 0) {
+            errOperand();
+        }
+        return new LogWriter(limit, since, global);
+    }
+
     /**
      * Execute rm command.
      * @param args The arguments.
@@ -393,7 +640,7 @@ public class Main {
             errOperand();
         }
         checkInitialization();
-        Repo curr = Repo.read();
+        Repo curr = Repo.readForUpdate();
         String toRemove = args[1];
         curr.rm(toRemove);
         Repo.save(curr);
@@ -408,10 +655,9 @@ public class Main {
         if (args.length > 2) {
             errOperand();
         } else if (args.length == 1 || args[1].equals("")) {
-            System.err.println("Please enter a commit message.");
-            System.exit(0);
+            throw new GitletException("Please enter a commit message.");
         } else {
-            Repo curr = Repo.read();
+            Repo curr = Repo.readForUpdate();
             String commitMessage = args[1];
             curr.commit(commitMessage);
             Repo.save(curr);
@@ -419,13 +665,12 @@ public class Main {
     }
 
     /**
-     * Execute add command.
+     * Execute add command on one or more files, directories or globs.
      * @param args The arguments.
      */
     private static void add(String[] args) throws IOException {
-        Repo curr = Repo.read();
-        String fileName = args[1];
-        curr.add(fileName);
+        Repo curr = Repo.readForUpdate();
+        curr.add(Arrays.asList(args).subList(1, args.length));
         Repo.save(curr);
     }
 
@@ -435,9 +680,9 @@ public class Main {
     private static void init() {
         File gitlet = new File("./.gitlet");
         if (gitlet.exists()) {
-            System.out.println("A Gitlet version-control system already "
+            throw new GitletException(
+                "A Gitlet version-control system already "
                 + "exists in the current directory.");
-            System.exit(0);
         } else {
             gitlet.mkdir();
             Repo raw = new Repo();
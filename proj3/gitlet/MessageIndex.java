@@ -0,0 +1,418 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/** An inverted index from commit messages to commit ids.  Each commit
+ *  is posted under three kinds of key: the hash of its message, each word
+ *  of it (lower-cased), and each three-character substring of it.
+ *
+ *  The postings live in a few sorted segment files, oldest first.  Each
+ *  holds a count, a table of the offsets of its entries, and then one
+ *  entry per key, in key order, holding the key and every id posted
+ *  under it.  A lookup binary-searches each segment's offset table,
+ *  reading one key per step, and then reads only its own posting list.
+ *  New postings are appended, unsorted, to a journal beside them, which
+ *  every lookup also scans.  Once the journal reaches JOURNAL_LIMIT
+ *  bytes it is sorted into a new segment, and while the newest segment
+ *  is at least half the size of the one before, the two are merged.
+ *  Segment sizes therefore at least double going back in time, so there
+ *  are only logarithmically many, and each posting is rewritten only a
+ *  logarithmic number of times however long the history grows.  Keys are
+ *  stored with an int length, so a key may be of any length.  The files
+ *  are written only under a lock beside the directory, since several
+ *  commands may add commits at once.
+ *  @author Laiming Huang
+ */
+class MessageIndex {
+
+    /** Length of the substrings indexed for substring search. */
+    static final int GRAM = 3;
+    /** Journal bytes allowed before the journal is sorted into a
+     *  segment. */
+    static final int JOURNAL_LIMIT = 1 << 16;
+    /** Prefix of each segment's name, followed by its sequence number. */
+    static final String SEGMENT = "seg-";
+
+    /** Directory holding the segments and journal. */
+    private final File _dir;
+    /** The journal of recently added postings. */
+    private final File _journal;
+    /** Lock file held while this index is written, since several
+     *  commands may add commits at once. */
+    private final File _lock;
+    /** The segments, by sequence number, as listed by the current
+     *  operation, or null if it has not listed them yet. */
+    private TreeMap<Long, File> _segments;
+    /** The journal's postings, as read by the current lookup, or null
+     *  if it has not read them yet. */
+    private HashMap<String, LinkedHashSet<String>> _recent;
+
+    /** An index kept in DIR. */
+    MessageIndex(File dir) {
+        _dir = dir;
+        _journal = new File(dir, "journal");
+        _lock = new File(dir.getPath() + ".lock");
+    }
+
+    /** Return true iff this index has been created. */
+    boolean exists() {
+        return !segments().isEmpty();
+    }
+
+    /** Add the commits in COMMITS, keyed by id, to this index.  The
+     *  first call builds the first segment directly. */
+    void addAll(HashMap<String, String> commits) {
+        forget();
+        try (RepoLock lock = RepoLock.acquire(_lock)) {
+            if (exists()) {
+                append(commits);
+            } else {
+                build(commits);
+            }
+        }
+    }
+
+    /** Build the first segment from COMMITS, keyed by id. */
+    private void build(HashMap<String, String> commits) {
+        _dir.mkdirs();
+        TreeMap<String, LinkedHashSet<String>> postings =
+            new TreeMap<String, LinkedHashSet<String>>();
+        for (String id : commits.keySet()) {
+            for (String key : keys(commits.get(id))) {
+                postings.computeIfAbsent(key,
+                    k -> new LinkedHashSet<String>()).add(id);
+            }
+        }
+        writeSegment(postings);
+    }
+
+    /** Append the postings of COMMITS, keyed by id, to the journal,
+     *  sorting it into a segment if it has grown too long. */
+    private void append(HashMap<String, String> commits) {
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(
+                     new FileOutputStream(_journal, true)))) {
+            for (String id : commits.keySet()) {
+                for (String key : keys(commits.get(id))) {
+                    writeKey(out, key);
+                    out.write(ObjectStore.idToBytes(id));
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (_journal.length() >= JOURNAL_LIMIT) {
+            writeSegment(new TreeMap<String, LinkedHashSet<String>>(
+                readJournal()));
+            _journal.delete();
+            compact();
+        }
+    }
+
+    /** Return the ids of commits whose message is exactly MESSAGE. */
+    List<String> exact(String message) {
+        forget();
+        return new ArrayList<String>(postings(exactKey(message)));
+    }
+
+    /** Return the ids of commits whose messages contain every word of
+     *  WORDS, ignoring case. */
+    List<String> words(String words) {
+        forget();
+        LinkedHashSet<String> result = null;
+        for (String word : tokenize(words)) {
+            LinkedHashSet<String> ids = postings(wordKey(word));
+            if (result == null) {
+                result = ids;
+            } else {
+                result.retainAll(ids);
+            }
+        }
+        return result == null ? new ArrayList<String>()
+            : new ArrayList<String>(result);
+    }
+
+    /** Return the ids of commits whose messages may contain TEXT, which
+     *  must be at least GRAM characters long.  Every commit that does
+     *  contain it is returned, but the caller must check the messages
+     *  to rule out false matches. */
+    List<String> candidates(String text) {
+        forget();
+        LinkedHashSet<String> result = null;
+        for (int i = 0; i + GRAM <= text.length(); i += 1) {
+            LinkedHashSet<String> ids =
+                postings(gramKey(text.substring(i, i + GRAM)));
+            if (result == null) {
+                result = ids;
+            } else {
+                result.retainAll(ids);
+            }
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result == null ? new ArrayList<String>()
+            : new ArrayList<String>(result);
+    }
+
+    /** Return the ids posted under KEY, oldest first. */
+    private LinkedHashSet<String> postings(String key) {
+        LinkedHashSet<String> result = new LinkedHashSet<String>();
+        for (File segment : segments().values()) {
+            search(segment, key, result);
+        }
+        Set<String> recent = readJournal().get(key);
+        if (recent != null) {
+            result.addAll(recent);
+        }
+        return result;
+    }
+
+    /** Add the ids posted under KEY in SEGMENT to RESULT. */
+    private static void search(File segment, String key,
+                               Collection<String> result) {
+        try (RandomAccessFile in = new RandomAccessFile(segment, "r")) {
+            int lo = 0, hi = in.readInt();
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                in.seek(Integer.BYTES + (long) mid * Long.BYTES);
+                in.seek(in.readLong());
+                int cmp = readKey(in).compareTo(key);
+                if (cmp < 0) {
+                    lo = mid + 1;
+                } else if (cmp > 0) {
+                    hi = mid;
+                } else {
+                    byte[] ids =
+                        new byte[in.readInt() * ObjectStore.ID_BYTES];
+                    in.readFully(ids);
+                    Trace.read(ids.length);
+                    addIds(ids, result);
+                    break;
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Merge the two newest segments for as long as the newer is at
+     *  least half the size of the older.  The merged segment is written
+     *  before either is deleted, so a crash in between leaves postings
+     *  in both, which lookups and later merges ignore. */
+    private void compact() {
+        while (segments().size() >= 2) {
+            File newer = segments().lastEntry().getValue();
+            File older = segments().lowerEntry(
+                segments().lastKey()).getValue();
+            if (2 * newer.length() < older.length()) {
+                break;
+            }
+            TreeMap<String, LinkedHashSet<String>> postings =
+                new TreeMap<String, LinkedHashSet<String>>();
+            readSegment(older, postings);
+            readSegment(newer, postings);
+            writeSegment(postings);
+            segments().values().remove(older);
+            segments().values().remove(newer);
+            older.delete();
+            newer.delete();
+        }
+    }
+
+    /** Write POSTINGS as a new segment, newer than every other, all at
+     *  once. */
+    private void writeSegment(TreeMap<String, LinkedHashSet<String>>
+                              postings) {
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        long[] offsets = new long[postings.size()];
+        long start = Integer.BYTES + (long) offsets.length * Long.BYTES;
+        try (DataOutputStream out = new DataOutputStream(entries)) {
+            int i = 0;
+            for (Map.Entry<String, LinkedHashSet<String>> entry
+                     : postings.entrySet()) {
+                offsets[i] = start + out.size();
+                i += 1;
+                writeKey(out, entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (String id : entry.getValue()) {
+                    out.write(ObjectStore.idToBytes(id));
+                }
+            }
+            ByteArrayOutputStream all = new ByteArrayOutputStream();
+            DataOutputStream header = new DataOutputStream(all);
+            header.writeInt(offsets.length);
+            for (long offset : offsets) {
+                header.writeLong(offset);
+            }
+            entries.writeTo(all);
+            long number = segments().isEmpty() ? 1
+                : segments().lastKey() + 1;
+            File segment = new File(_dir, SEGMENT + number);
+            WriteBatch.replace(segment, all.toByteArray());
+            segments().put(number, segment);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Add every posting in SEGMENT to RESULT, after those already
+     *  there under the same key. */
+    private static void readSegment(File segment,
+                                    TreeMap<String, LinkedHashSet<String>>
+                                    result) {
+        try (DataInputStream in = new DataInputStream(
+                 new ByteArrayInputStream(Utils.readContents(segment)))) {
+            int n = in.readInt();
+            in.skipBytes(n * Long.BYTES);
+            for (int i = 0; i < n; i += 1) {
+                String key = readKey(in);
+                byte[] ids = new byte[in.readInt() * ObjectStore.ID_BYTES];
+                in.readFully(ids);
+                addIds(ids, result.computeIfAbsent(key,
+                    k -> new LinkedHashSet<String>()));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the segments, by sequence number, oldest first. */
+    private TreeMap<Long, File> segments() {
+        if (_segments == null) {
+            _segments = new TreeMap<Long, File>();
+            String[] names = _dir.list();
+            if (names != null) {
+                for (String name : names) {
+                    if (name.startsWith(SEGMENT)) {
+                        _segments.put(Long.parseLong(
+                            name.substring(SEGMENT.length())),
+                            new File(_dir, name));
+                    }
+                }
+            }
+        }
+        return _segments;
+    }
+
+    /** Return the postings in the journal, by key, each set oldest
+     *  first. */
+    private HashMap<String, LinkedHashSet<String>> readJournal() {
+        if (_recent != null) {
+            return _recent;
+        }
+        HashMap<String, LinkedHashSet<String>> result =
+            new HashMap<String, LinkedHashSet<String>>();
+        _recent = result;
+        if (!_journal.isFile()) {
+            return result;
+        }
+        byte[] all = Utils.readContents(_journal);
+        Trace.read(all.length);
+        byte[] id = new byte[ObjectStore.ID_BYTES];
+        try (DataInputStream in = new DataInputStream(
+                 new ByteArrayInputStream(all))) {
+            while (in.available() > 0) {
+                String key = readKey(in);
+                in.readFully(id);
+                result.computeIfAbsent(key,
+                    k -> new LinkedHashSet<String>())
+                    .add(ObjectStore.idFromBytes(id));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result;
+    }
+
+    /** Forget the segments and journal postings read so far, which
+     *  another command may since have changed. */
+    private void forget() {
+        _segments = null;
+        _recent = null;
+    }
+
+    /** Add the ids packed in IDS to RESULT. */
+    private static void addIds(byte[] ids, Collection<String> result) {
+        for (int i = 0; i < ids.length; i += ObjectStore.ID_BYTES) {
+            result.add(ObjectStore.idFromBytes(
+                Arrays.copyOfRange(ids, i, i + ObjectStore.ID_BYTES)));
+        }
+    }
+
+    /** Write KEY to OUT as an int length and its UTF-8 bytes. */
+    private static void writeKey(DataOutputStream out, String key)
+        throws IOException {
+        byte[] raw = key.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(raw.length);
+        out.write(raw);
+    }
+
+    /** Read a key written by writeKey from IN. */
+    private static String readKey(DataInput in) throws IOException {
+        byte[] raw = new byte[in.readInt()];
+        in.readFully(raw);
+        return new String(raw, StandardCharsets.UTF_8);
+    }
+
+    /** Return every key MESSAGE is posted under. */
+    private static LinkedHashSet<String> keys(String message) {
+        LinkedHashSet<String> result = new LinkedHashSet<String>();
+        result.add(exactKey(message));
+        for (String word : tokenize(message)) {
+            result.add(wordKey(word));
+        }
+        for (int i = 0; i + GRAM <= message.length(); i += 1) {
+            result.add(gramKey(message.substring(i, i + GRAM)));
+        }
+        return result;
+    }
+
+    /** Return the lower-cased words of TEXT. */
+    private static List<String> tokenize(String text) {
+        List<String> result = new ArrayList<String>();
+        for (String word : text.toLowerCase(Locale.ROOT)
+                 .split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                result.add(word);
+            }
+        }
+        return result;
+    }
+
+    /** Return the key for the whole MESSAGE: its hash, so that keys
+     *  stay short however long messages are. */
+    private static String exactKey(String message) {
+        return "m:" + Utils.sha1(message);
+    }
+
+    /** Return the key for WORD. */
+    private static String wordKey(String word) {
+        return "t:" + word;
+    }
+
+    /** Return the key for the substring GRAM. */
+    private static String gramKey(String gram) {
+        return "g:" + gram;
+    }
+}
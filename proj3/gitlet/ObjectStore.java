@@ -0,0 +1,569 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/** A content-addressed store of Gitlet objects.  The object whose
+ *  SHA-1 id is XXYYYY... lives in DIR/XX/YYYY..., so that no single
+ *  directory holds more than a small fraction of the store.  Objects
+ *  are immutable: once written, an id always denotes the same bytes.
+ *
+ *  File contents are streamed through a fixed-size buffer, hashing as
+ *  they are copied, so storing or checking out a file takes constant
+ *  memory whatever its size.  New objects are written to a temporary
+ *  file and renamed into place, so a reader never sees a partial one;
+ *  they reach the disk together at the next sync, before any reference
+ *  to them is saved.
+ *
+ *  Objects start out loose, one file each.  Repacking moves them all
+ *  into a single compressed, delta-encoded Pack under DIR/pack; an
+ *  object is looked for loose first and then in the packs.
+ *
+ *  A file of CHUNK_THRESHOLD bytes or more is split by a Chunker into
+ *  content-defined chunks, each stored as an object of its own, and
+ *  the file is stored as a recipe listing them, in DIR/chunked/XX/YYYY...
+ *  under the id of its whole contents.  Versions of a large file thus
+ *  share every chunk an edit did not touch, and copying one to another
+ *  store copies only the chunks that store lacks.  Recipes are never
+ *  packed, but their chunks are.
+ *  @author Laiming Huang
+ */
+class ObjectStore {
+
+    /** Number of leading id characters used as the fan-out directory. */
+    static final int FANOUT_LENGTH = 2;
+    /** Length of an id in its raw binary form. */
+    static final int ID_BYTES = Utils.UID_LENGTH / 2;
+    /** Size of the buffer used when streaming file contents. */
+    static final int BUFFER_SIZE = 1 << 16;
+    /** Size from which files are stored in chunks. */
+    static final long CHUNK_THRESHOLD = 1 << 20;
+    /** First bytes of every recipe. */
+    static final int RECIPE_MAGIC = 0x67636b31;
+
+    /** The root directory of this store. */
+    private final File _dir;
+    /** The packs in this store, once looked for. */
+    private List<Pack> _packs;
+    /** Objects written since the last sync. */
+    private final List<File> _unsynced = new ArrayList<File>();
+
+    /** A store rooted at DIR. */
+    ObjectStore(File dir) {
+        _dir = dir;
+    }
+
+    /** Return the root directory of this store. */
+    File dir() {
+        return _dir;
+    }
+
+    /** Return the file that holds (or would hold) the object ID. */
+    File file(String id) {
+        return Utils.join(_dir, id.substring(0, FANOUT_LENGTH),
+            id.substring(FANOUT_LENGTH));
+    }
+
+    /** Return the recipe file of the chunked object ID. */
+    private File recipeFile(String id) {
+        return Utils.join(_dir, "chunked", id.substring(0, FANOUT_LENGTH),
+            id.substring(FANOUT_LENGTH));
+    }
+
+    /** Return true iff the object ID is present in this store. */
+    boolean contains(String id) {
+        if (id == null || id.length() != Utils.UID_LENGTH) {
+            return false;
+        }
+        return file(id).isFile() || pack(id) != null
+            || recipeFile(id).isFile();
+    }
+
+    /** Store CONTENTS, if not already present, and return its id. */
+    String put(String contents) {
+        return put(contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Store CONTENTS, if not already present, and return its id. */
+    String put(byte[] contents) {
+        String id = Utils.sha1(contents);
+        put(id, contents);
+        return id;
+    }
+
+    /** Store CONTENTS under the caller-supplied ID, if not already
+     *  present.  Used for records, such as commits, whose id is not
+     *  the hash of their serialized form. */
+    void put(String id, byte[] contents) {
+        if (!contains(id)) {
+            File temp = tempFile();
+            Utils.writeContents(temp, contents);
+            install(temp, id);
+        }
+    }
+
+    /** Store the contents of FILE, if not already present, and return
+     *  its id.  The file is read once, through a fixed-size buffer. */
+    String putFile(File file) {
+        if (file.length() >= CHUNK_THRESHOLD) {
+            return putChunked(file);
+        }
+        File temp = tempFile();
+        Trace.sha1();
+        String id;
+        try (Trace.Span span = Trace.span("store file");
+             InputStream in = new FileInputStream(file);
+             OutputStream out = new FileOutputStream(temp)) {
+            MessageDigest md = sha1Digest();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                md.update(buffer, 0, n);
+                out.write(buffer, 0, n);
+                Trace.read(n);
+                Trace.wrote(n);
+            }
+            id = idFromBytes(md.digest());
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        install(temp, id);
+        return id;
+    }
+
+    /** Store the contents of FILE in chunks, each if not already
+     *  present, and return the id of the whole. */
+    private String putChunked(File file) {
+        Trace.sha1();
+        try (Trace.Span span = Trace.span("store file");
+             InputStream in = new FileInputStream(file)) {
+            MessageDigest md = sha1Digest();
+            Chunker chunker = new Chunker(in);
+            List<String> ids = new ArrayList<String>();
+            List<Integer> sizes = new ArrayList<Integer>();
+            for (int n = chunker.next(); n > 0; n = chunker.next()) {
+                md.update(chunker.buffer(), chunker.offset(), n);
+                ids.add(put(Arrays.copyOfRange(chunker.buffer(),
+                    chunker.offset(), chunker.offset() + n)));
+                sizes.add(n);
+            }
+            String id = idFromBytes(md.digest());
+            if (!contains(id)) {
+                ByteArrayOutputStream recipe = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(recipe);
+                out.writeInt(RECIPE_MAGIC);
+                out.writeInt(ids.size());
+                for (int i = 0; i < ids.size(); i += 1) {
+                    out.write(idToBytes(ids.get(i)));
+                    out.writeInt(sizes.get(i));
+                }
+                File temp = tempFile();
+                Utils.writeContents(temp, recipe.toByteArray());
+                place(temp, recipeFile(id));
+            }
+            return id;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the chunk ids of the chunked object ID, in order, or null
+     *  if ID is not chunked here.  SIZES, if not null, receives their
+     *  sizes. */
+    private List<String> chunks(String id, List<Integer> sizes) {
+        File file = recipeFile(id);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                 new ByteArrayInputStream(Utils.readContents(file)))) {
+            if (in.readInt() != RECIPE_MAGIC) {
+                throw Utils.error("Corrupt recipe %s.", id);
+            }
+            int count = in.readInt();
+            List<String> result = new ArrayList<String>(count);
+            byte[] raw = new byte[ID_BYTES];
+            for (int i = 0; i < count; i += 1) {
+                in.readFully(raw);
+                result.add(idFromBytes(raw));
+                int size = in.readInt();
+                if (sizes != null) {
+                    sizes.add(size);
+                }
+            }
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the ids of all objects in this store, in no particular
+     *  order.  This touches every fan-out directory, so callers on hot
+     *  paths should not use it. */
+    List<String> ids() {
+        List<String> result = looseIds();
+        for (Pack pack : packs()) {
+            result.addAll(pack.ids());
+        }
+        File[] buckets = new File(_dir, "chunked").listFiles();
+        if (buckets != null) {
+            for (File bucket : buckets) {
+                for (String name : Utils.plainFilenamesIn(bucket)) {
+                    result.add(bucket.getName() + name);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the ids of all loose objects. */
+    private List<String> looseIds() {
+        List<String> result = new ArrayList<String>();
+        File[] buckets = _dir.listFiles(f -> f.isDirectory()
+            && f.getName().length() == FANOUT_LENGTH);
+        if (buckets == null) {
+            return result;
+        }
+        for (File bucket : buckets) {
+            for (String name : Utils.plainFilenamesIn(bucket)) {
+                result.add(bucket.getName() + name);
+            }
+        }
+        return result;
+    }
+
+    /** Return the contents of object ID. */
+    byte[] read(String id) {
+        if (!contains(id)) {
+            throw Utils.error("Missing object %s.", id);
+        } else if (file(id).isFile()) {
+            return Utils.readContents(file(id));
+        } else if (pack(id) != null) {
+            return pack(id).read(id);
+        }
+        List<Integer> sizes = new ArrayList<Integer>();
+        List<String> chunks = chunks(id, sizes);
+        long length = 0;
+        for (int size : sizes) {
+            length += size;
+        }
+        if (length > Integer.MAX_VALUE - 8) {
+            throw Utils.error("Object %s is too large to read whole.", id);
+        }
+        byte[] result = new byte[(int) length];
+        int pos = 0;
+        for (String chunk : chunks) {
+            byte[] contents = read(chunk);
+            System.arraycopy(contents, 0, result, pos, contents.length);
+            pos += contents.length;
+        }
+        return result;
+    }
+
+    /** Return a stream of the contents of object ID, read straight from
+     *  its file if it is loose.  The caller must close it. */
+    InputStream open(String id) {
+        if (!contains(id)) {
+            throw Utils.error("Missing object %s.", id);
+        } else if (file(id).isFile()) {
+            try {
+                Trace.read(file(id).length());
+                return new FileInputStream(file(id));
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        } else if (pack(id) != null) {
+            return new ByteArrayInputStream(pack(id).read(id));
+        }
+        Iterator<String> chunks = chunks(id, null).iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return chunks.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                return open(chunks.next());
+            }
+        });
+    }
+
+    /** Return the contents of object ID as a String. */
+    String readAsString(String id) {
+        return new String(read(id), StandardCharsets.UTF_8);
+    }
+
+    /** Overwrite (or create) FILE with the contents of object ID,
+     *  letting the kernel move the bytes with transferTo if the object
+     *  is loose. */
+    void copyTo(String id, File file) {
+        if (file.isDirectory()) {
+            throw new IllegalArgumentException("cannot overwrite directory");
+        }
+        List<String> chunks = chunks(id, null);
+        if (chunks != null) {
+            try (FileChannel out = FileChannel.open(file.toPath(),
+                     StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (String chunk : chunks) {
+                    if (file(chunk).isFile()) {
+                        try (FileChannel in =
+                                 FileChannel.open(file(chunk).toPath())) {
+                            transfer(in, out);
+                        }
+                    } else {
+                        byte[] contents = read(chunk);
+                        out.write(ByteBuffer.wrap(contents));
+                        Trace.wrote(contents.length);
+                    }
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            return;
+        } else if (!file(id).isFile()) {
+            Utils.writeContents(file, read(id));
+            return;
+        }
+        try (FileChannel in = FileChannel.open(file(id).toPath());
+             FileChannel out = FileChannel.open(file.toPath(),
+                 StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                 StandardOpenOption.TRUNCATE_EXISTING)) {
+            transfer(in, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Append all of IN to OUT. */
+    private static void transfer(FileChannel in, FileChannel out)
+        throws IOException {
+        long size = in.size();
+        for (long pos = 0; pos < size; ) {
+            pos += in.transferTo(pos, size - pos, out);
+        }
+        Trace.read(size);
+        Trace.wrote(size);
+    }
+
+    /** Copy object ID into OTHER, unless OTHER already has it.  A
+     *  chunked object is copied as its recipe and whichever of its
+     *  chunks OTHER lacks. */
+    void copyTo(ObjectStore other, String id) {
+        if (other.contains(id)) {
+            return;
+        }
+        List<String> chunks = chunks(id, null);
+        File temp = other.tempFile();
+        if (chunks == null) {
+            copyTo(id, temp);
+            other.install(temp, id);
+            return;
+        }
+        for (String chunk : chunks) {
+            copyTo(other, chunk);
+        }
+        Utils.writeContents(temp, Utils.readContents(recipeFile(id)));
+        other.place(temp, other.recipeFile(id));
+    }
+
+    /** Flush every object written since the last call, and the
+     *  directories holding them, to disk. */
+    void sync() {
+        LinkedHashSet<File> files = new LinkedHashSet<File>();
+        synchronized (_unsynced) {
+            for (File file : _unsynced) {
+                files.add(file);
+            }
+            for (File file : _unsynced) {
+                files.add(file.getParentFile());
+                files.add(file.getParentFile().getParentFile());
+            }
+            _unsynced.clear();
+        }
+        if (!files.isEmpty()) {
+            files.add(_dir);
+        }
+        WriteBatch.syncAll(files);
+    }
+
+    /** Move every object into one new pack, replacing any old packs,
+     *  and delete the loose copies.  An object X is stored as a delta
+     *  against BASES.get(X), when there is one and it is smaller.
+     *  BASES must not contain cycles. */
+    void repack(Map<String, String> bases) {
+        List<String> loose = looseIds();
+        List<Pack> old = packs();
+        if (loose.isEmpty() && old.size() <= 1) {
+            return;
+        }
+        LinkedHashSet<String> all = new LinkedHashSet<String>(loose);
+        for (Pack pack : old) {
+            all.addAll(pack.ids());
+        }
+        Pack result = Pack.write(packDir(), this, all, bases);
+        WriteBatch.syncAll(Arrays.asList(result.files()[1],
+            result.files()[0], packDir()));
+        List<Pack> packs = new ArrayList<Pack>();
+        packs.add(result);
+        synchronized (this) {
+            _packs = packs;
+        }
+        for (String id : loose) {
+            file(id).delete();
+            file(id).getParentFile().delete();
+        }
+        for (Pack pack : old) {
+            if (!pack.files()[0].equals(result.files()[0])) {
+                for (File f : pack.files()) {
+                    f.delete();
+                }
+            }
+        }
+    }
+
+    /** Return the directory holding this store's packs. */
+    private File packDir() {
+        return new File(_dir, "pack");
+    }
+
+    /** Return the packs in this store. */
+    private synchronized List<Pack> packs() {
+        if (_packs == null) {
+            List<Pack> packs = new ArrayList<Pack>();
+            File[] indices = packDir().listFiles(
+                f -> f.getName().endsWith(".idx"));
+            if (indices != null) {
+                for (File index : indices) {
+                    packs.add(new Pack(index));
+                }
+            }
+            _packs = packs;
+        }
+        return _packs;
+    }
+
+    /** Return the pack holding object ID, or null if none does. */
+    private Pack pack(String id) {
+        for (Pack pack : packs()) {
+            if (pack.contains(id)) {
+                return pack;
+            }
+        }
+        return null;
+    }
+
+    /** Return the id that the contents of FILE would have in a store,
+     *  reading it through a fixed-size buffer. */
+    static String hash(File file) {
+        Trace.sha1();
+        try (Trace.Span span = Trace.span("hash file");
+             InputStream in = new FileInputStream(file)) {
+            MessageDigest md = sha1Digest();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                md.update(buffer, 0, n);
+                Trace.read(n);
+            }
+            return idFromBytes(md.digest());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return a new, empty temporary file inside this store. */
+    private File tempFile() {
+        try {
+            _dir.mkdirs();
+            return File.createTempFile("tmp-", null, _dir);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Move the complete object in TEMP into place as object ID.  If
+     *  another writer got there first, TEMP is simply discarded. */
+    private void install(File temp, String id) {
+        if (pack(id) != null) {
+            temp.delete();
+            return;
+        }
+        place(temp, file(id));
+    }
+
+    /** Move the complete file TEMP into place as TARGET, unless TARGET
+     *  is already there. */
+    private void place(File temp, File target) {
+        if (target.isFile()) {
+            temp.delete();
+            return;
+        }
+        target.getParentFile().mkdirs();
+        try {
+            Files.move(temp.toPath(), target.toPath(),
+                StandardCopyOption.ATOMIC_MOVE);
+            synchronized (_unsynced) {
+                _unsynced.add(target);
+            }
+        } catch (IOException excp) {
+            temp.delete();
+            if (!target.isFile()) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Return a fresh SHA-1 digest. */
+    private static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Return the 20-byte binary form of the hexadecimal ID. */
+    static byte[] idToBytes(String id) {
+        byte[] result = new byte[ID_BYTES];
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            result[i] = (byte) Integer.parseInt(id.substring(2 * i, 2 * i + 2),
+                16);
+        }
+        return result;
+    }
+
+    /** Return the hexadecimal id whose binary form is RAW. */
+    static String idFromBytes(byte[] raw) {
+        StringBuilder result = new StringBuilder(Utils.UID_LENGTH);
+        for (byte b : raw) {
+            result.append(Character.forDigit((b >> 4) & 0xf, 16));
+            result.append(Character.forDigit(b & 0xf, 16));
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,339 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/** A pack: many objects in one file, each compressed with zlib and,
+ *  where it pays, stored as a Delta against an earlier version of the
+ *  same file in the same pack.  Beside NAME.pack lives NAME.idx, which
+ *  lists the packed ids in sorted order with a 256-entry fan-out table
+ *  on their first byte, so finding an object is a binary search over
+ *  the few ids that share its first byte.  Both files are mapped into
+ *  memory rather than read, so reading one object touches only the
+ *  pages of the index and the entries it needs.
+ *
+ *  NAME.pack is "PACK", a version and a count, then one entry per
+ *  object: a type byte, the base id if the entry is a delta, the
+ *  length of the object (or of its delta), the stored length and the
+ *  deflated bytes.
+ *  NAME.idx is "PIDX", a version, the fan-out table (entry B counts the
+ *  ids whose first byte is at most B), the sorted ids and their
+ *  offsets in the pack.
+ *  @author Laiming Huang
+ */
+class Pack {
+
+    /** Longest chain of deltas allowed before an object is stored
+     *  whole, bounding the cost of reading any one object. */
+    static final int MAX_DEPTH = 16;
+    /** Magic number of a pack. */
+    private static final int PACK_MAGIC = 0x5041434b;
+    /** Magic number of a pack index. */
+    private static final int INDEX_MAGIC = 0x50494458;
+    /** Format version of both files. */
+    private static final int VERSION = 1;
+    /** Entry holding a whole object. */
+    private static final byte WHOLE = 0;
+    /** Entry holding a delta against another object. */
+    private static final byte DELTA = 1;
+    /** Size of the header of the index, before the fan-out table. */
+    private static final int INDEX_HEADER = 8;
+    /** Number of entries in the fan-out table. */
+    private static final int FANOUT = 256;
+    /** Largest size of the fixed part of a pack entry. */
+    private static final int ENTRY_HEADER =
+        1 + ObjectStore.ID_BYTES + 2 * Integer.BYTES;
+
+    /** The pack index. */
+    private final File _index;
+    /** The pack data. */
+    private final File _data;
+    /** The whole index, mapped into memory. */
+    private final MappedByteBuffer _map;
+    /** The pack data mapped into memory, once an object is read, or
+     *  null if it is too large to map at once. */
+    private MappedByteBuffer _dataMap;
+    /** The open pack data, if it is too large to map at once. */
+    private FileChannel _dataChannel;
+
+    /** The pack whose index is INDEX.  The index is mapped, not read,
+     *  so opening a pack costs the same whatever its size. */
+    Pack(File index) {
+        _index = index;
+        String name = index.getName();
+        _data = new File(index.getParentFile(),
+            name.substring(0, name.length() - ".idx".length()) + ".pack");
+        try (FileChannel in = FileChannel.open(index.toPath())) {
+            _map = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (_map.capacity() < idsStart() || _map.getInt(0) != INDEX_MAGIC
+            || _map.getInt(Integer.BYTES) != VERSION) {
+            throw Utils.error("Bad pack index %s.", index);
+        }
+    }
+
+    /** Return the files making up this pack. */
+    File[] files() {
+        return new File[] {_index, _data};
+    }
+
+    /** Return the number of objects in this pack. */
+    int size() {
+        return fanout(FANOUT - 1);
+    }
+
+    /** Return true iff object ID is in this pack. */
+    boolean contains(String id) {
+        return offset(id) >= 0;
+    }
+
+    /** Return the ids of the objects in this pack, in sorted order. */
+    List<String> ids() {
+        List<String> result = new ArrayList<String>(size());
+        byte[] id = new byte[ObjectStore.ID_BYTES];
+        for (int i = 0; i < size(); i += 1) {
+            _map.get(idsStart() + i * ObjectStore.ID_BYTES, id);
+            result.add(ObjectStore.idFromBytes(id));
+        }
+        return result;
+    }
+
+    /** Return the contents of object ID, which must be in this pack.
+     *  Only the entry itself, and those of its delta bases, are
+     *  touched. */
+    byte[] read(String id) {
+        long offset = offset(id);
+        if (offset < 0) {
+            throw Utils.error("Missing object %s.", id);
+        }
+        ByteBuffer entry = entry(offset);
+        byte type = entry.get();
+        String base = null;
+        if (type == DELTA) {
+            byte[] raw = new byte[ObjectStore.ID_BYTES];
+            entry.get(raw);
+            base = ObjectStore.idFromBytes(raw);
+        }
+        int length = entry.getInt();
+        int stored = entry.getInt();
+        entry.limit(entry.position() + stored);
+        Trace.read(stored);
+        byte[] contents = inflate(entry, length);
+        return base == null ? contents : Delta.apply(read(base), contents);
+    }
+
+    /** Return a buffer positioned at the entry at OFFSET in the pack
+     *  data, covering at least the whole entry. */
+    private synchronized ByteBuffer entry(long offset) {
+        try {
+            if (_dataMap == null && _dataChannel == null) {
+                FileChannel in = FileChannel.open(_data.toPath());
+                if (in.size() <= Integer.MAX_VALUE) {
+                    _dataMap = in.map(FileChannel.MapMode.READ_ONLY, 0,
+                        in.size());
+                    in.close();
+                } else {
+                    _dataChannel = in;
+                }
+            }
+            if (_dataMap != null) {
+                return _dataMap.duplicate().position((int) offset);
+            }
+            ByteBuffer header = _dataChannel.map(FileChannel.MapMode.READ_ONLY,
+                offset, Math.min(ENTRY_HEADER, _dataChannel.size() - offset));
+            header.position(header.get(0) == DELTA
+                ? 1 + ObjectStore.ID_BYTES + Integer.BYTES : 1 + Integer.BYTES);
+            long length = ENTRY_HEADER + header.getInt();
+            return _dataChannel.map(FileChannel.MapMode.READ_ONLY, offset,
+                Math.min(length, _dataChannel.size() - offset));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the offset in the pack of object ID, or -1 if it is not
+     *  here.  The fan-out table narrows the search to the ids sharing
+     *  ID's first byte, which are then binary searched in place. */
+    private long offset(String id) {
+        byte[] key = ObjectStore.idToBytes(id);
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : fanout(first - 1);
+        int hi = fanout(first);
+        byte[] probe = new byte[ObjectStore.ID_BYTES];
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            _map.get(idsStart() + mid * ObjectStore.ID_BYTES, probe);
+            int c = Arrays.compareUnsigned(probe, key);
+            if (c == 0) {
+                return _map.getLong(idsStart()
+                    + size() * ObjectStore.ID_BYTES + mid * Long.BYTES);
+            } else if (c < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Return entry I of the fan-out table. */
+    private int fanout(int i) {
+        return _map.getInt(INDEX_HEADER + i * Integer.BYTES);
+    }
+
+    /** Return the position in the index of the first id. */
+    private static int idsStart() {
+        return INDEX_HEADER + FANOUT * Integer.BYTES;
+    }
+
+    /** Write the objects IDS of SOURCE as a new pack in DIR and return
+     *  it.  An object X for which BASES names a base B also in IDS is
+     *  stored as a delta against B when that is smaller; BASES must not
+     *  contain cycles.  The pack is complete before its index appears,
+     *  so a pack with an index is always whole. */
+    static Pack write(File dir, ObjectStore source, Collection<String> ids,
+                      Map<String, String> bases) {
+        String[] sorted = ids.toArray(new String[0]);
+        Arrays.sort(sorted);
+        String name = "pack-" + Utils.sha1((Object[]) sorted);
+        dir.mkdirs();
+        long[] offsets = new long[sorted.length];
+        File data = new File(dir, name + ".pack");
+        File index = new File(dir, name + ".idx");
+        File temp = null;
+        try {
+            temp = File.createTempFile("tmp-", null, dir);
+            try (DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(PACK_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(sorted.length);
+                long pos = 3 * Integer.BYTES;
+                for (int i = 0; i < sorted.length; i += 1) {
+                    String base = bases.get(sorted[i]);
+                    if (base != null && Arrays.binarySearch(sorted, base) < 0) {
+                        base = null;
+                    }
+                    offsets[i] = pos;
+                    pos += writeEntry(out, source, sorted[i], base);
+                }
+            }
+            Files.move(temp.toPath(), data.toPath(),
+                StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+            temp = File.createTempFile("tmp-", null, dir);
+            try (DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(INDEX_MAGIC);
+                out.writeInt(VERSION);
+                int[] fanout = new int[FANOUT];
+                for (String id : sorted) {
+                    fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+                }
+                for (int i = 0, total = 0; i < FANOUT; i += 1) {
+                    total += fanout[i];
+                    out.writeInt(total);
+                }
+                for (String id : sorted) {
+                    out.write(ObjectStore.idToBytes(id));
+                }
+                for (long offset : offsets) {
+                    out.writeLong(offset);
+                }
+            }
+            Files.move(temp.toPath(), index.toPath(),
+                StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+        return new Pack(index);
+    }
+
+    /** Write the entry for object ID of SOURCE to OUT, as a delta
+     *  against BASE if BASE is not null and the delta is smaller, and
+     *  return the number of bytes written. */
+    private static long writeEntry(DataOutputStream out, ObjectStore source,
+                                   String id, String base)
+        throws IOException {
+        byte[] contents = source.read(id);
+        byte[] stored = deflate(contents);
+        if (base != null) {
+            byte[] raw = Delta.create(source.read(base), contents);
+            byte[] delta = deflate(raw);
+            if (delta.length < stored.length) {
+                out.writeByte(DELTA);
+                out.write(ObjectStore.idToBytes(base));
+                out.writeInt(raw.length);
+                out.writeInt(delta.length);
+                out.write(delta);
+                return 1 + ObjectStore.ID_BYTES + 2 * Integer.BYTES
+                    + delta.length;
+            }
+        }
+        out.writeByte(WHOLE);
+        out.writeInt(contents.length);
+        out.writeInt(stored.length);
+        out.write(stored);
+        return 1 + 2 * Integer.BYTES + stored.length;
+    }
+
+    /** Return CONTENTS compressed with zlib. */
+    private static byte[] deflate(byte[] contents) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        deflater.setInput(contents);
+        deflater.finish();
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[ObjectStore.BUFFER_SIZE];
+        while (!deflater.finished()) {
+            result.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return result.toByteArray();
+    }
+
+    /** Return the LENGTH bytes that the remainder of STORED inflates
+     *  to. */
+    private static byte[] inflate(ByteBuffer stored, int length) {
+        Inflater inflater = new Inflater();
+        inflater.setInput(stored);
+        byte[] result = new byte[length];
+        try {
+            for (int n = 0; n < length; ) {
+                int k = inflater.inflate(result, n, length - n);
+                if (k == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw Utils.error("Corrupt pack entry.");
+                }
+                n += k;
+            }
+        } catch (DataFormatException excp) {
+            throw Utils.error("Corrupt pack entry.");
+        } finally {
+            inflater.end();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,56 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/** Runs independent I/O-heavy tasks, such as hashing files into the
+ *  object store, on a small bounded pool of worker threads.
+ *  @author Laiming Huang
+ */
+class Parallel {
+
+    /** Most worker threads ever used. */
+    static final int MAX_THREADS =
+        Math.min(8, Runtime.getRuntime().availableProcessors());
+
+    /** Return the results of applying FN to each of ITEMS, in the same
+     *  order.  Small inputs are handled on the calling thread.  If any
+     *  application throws, the first such exception (in item order) is
+     *  rethrown once all work has stopped. */
+    static <S, T> List<T> map(List<S> items, Function<S, T> fn) {
+        List<T> result = new ArrayList<T>(items.size());
+        int threads = Math.min(MAX_THREADS, items.size());
+        if (threads <= 1) {
+            for (S item : items) {
+                result.add(fn.apply(item));
+            }
+            return result;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<T>> futures = new ArrayList<Future<T>>(items.size());
+            for (S item : items) {
+                futures.add(pool.submit(() -> fn.apply(item)));
+            }
+            for (Future<T> future : futures) {
+                result.add(future.get());
+            }
+            return result;
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalStateException(excp.getCause());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(excp);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
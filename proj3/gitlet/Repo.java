@@ -1,28 +1,61 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.FileOutputStream;
-import java.io.Serializable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.Set;
-import java.util.Stack;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Stream;
 
 /**
- * Repo class containing current gitlet monitoring status.
+ * Repo class containing current gitlet monitoring status.  A repository
+ * is kept on disk as many small records rather than one serialized
+ * object: the staging index, HEAD, the remotes, one file per branch and
+ * one file per commit.  Commits are read only when needed and, being
+ * immutable, written only once.
  * @author Laiming Huang.
  */
-public class Repo implements Serializable {
+public class Repo {
 
+    /**
+     * The default repository directory.
+     */
+    static final String GITLET_DIR = ".gitlet";
+    /**
+     * Lock file held by commands that change the index, HEAD or remotes.
+     */
+    static final String INDEX_LOCK = "index.lock";
+    /**
+     * Lock file held while branches are compared and swapped.
+     */
+    static final String REFS_LOCK = "refs.lock";
+    /**
+     * Fewest hex digits merge and diff take as an abbreviated commit id
+     * in place of a branch name, so that a mistyped branch name is not
+     * mistaken for one.
+     */
+    static final int MIN_ID_PREFIX = 4;
+    /**
+     * The .gitlet directory of this repository.
+     */
+    private final File _dir;
     /**
      * Staged area.
      */
@@ -32,157 +65,434 @@ public class Repo implements Serializable {
      */
     private HashSet<String> _untracked;
     /**
-     * Current head.
+     * The staging index holding _staged and _untracked.
+     */
+    private Index _index;
+    /**
+     * What is known about the working files, read only when asked.
+     */
+    private final StatCache _stats;
+    /**
+     * Id of the current head.
+     */
+    private String _head;
+    /**
+     * Name of the current branch.
      */
-    private Commit head;
+    private String _currBranchName;
     /**
      * All the commits.
      */
-    private HashMap<String, Commit> commitCollection;
+    private final CommitStore commitCollection;
     /**
-     * All the branches.
+     * Branches read or changed so far, by name.
      */
-    private HashMap<String, Branch> branchCollection;
+    private final HashMap<String, Branch> branchCollection;
+    /**
+     * Branches changed since the repo was read.
+     */
+    private final HashSet<String> _changedBranches;
+    /**
+     * Branches removed since the repo was read.
+     */
+    private final HashSet<String> _removedBranches;
     /**
      * All the remote names.
      */
     private HashMap<String, String> _remotes;
+    /**
+     * Store holding the contents of every committed or staged file.
+     */
+    private final ObjectStore _objects;
+    /**
+     * The lock on the index, if this command may change the index, HEAD
+     * and remotes; null if it may only change branches.
+     */
+    private RepoLock _lock;
+    /**
+     * The head id each branch had when first looked at, or null if it
+     * did not exist then, by name.  Branches are only saved if they are
+     * still as they were.
+     */
+    private final HashMap<String, String> _readHeads;
 
     /**
-     * Default constructor for Repo class.
+     * Default constructor for Repo class: a fresh repository in the
+     * default directory, holding only the initial commit.
      */
     public Repo() {
-        File staging = new File("./.gitlet/.staging/");
-        staging.mkdirs();
-        branchCollection = new HashMap<String, Branch>();
-        _staged = new HashMap<String, String>();
+        this(new File(GITLET_DIR));
+        _lock = RepoLock.acquire(Utils.join(_dir, INDEX_LOCK));
+        _objects.dir().mkdirs();
+        branchesDir().mkdirs();
+        _index = new Index();
+        _staged = _index.staged();
+        _untracked = _index.removed();
         _remotes = new HashMap<String, String>();
-        _untracked = new HashSet<String>();
-        commitCollection = new HashMap<String, Commit>();
         Commit initialCommit = new Commit();
-        Branch master = new Branch("master", initialCommit);
-        master.toCurr();
-        head = master.getHead();
-        branchCollection.put("master", master);
-        commitCollection.put(initialCommit.toSha1(), initialCommit);
+        commitCollection.put(initialCommit);
+        putBranch(new Branch("master", initialCommit.toSha1()));
+        _currBranchName = "master";
+        _head = initialCommit.toSha1();
+    }
+
+    /**
+     * A repository stored in DIR, with nothing yet read.
+     * @param dir The .gitlet directory.
+     */
+    private Repo(File dir) {
+        _dir = dir;
+        _objects = new ObjectStore(Utils.join(dir, "objects"));
+        commitCollection = new CommitStore(Utils.join(dir, "commits"),
+            _objects);
+        branchCollection = new HashMap<String, Branch>();
+        _changedBranches = new HashSet<String>();
+        _removedBranches = new HashSet<String>();
+        _readHeads = new HashMap<String, String>();
+        _stats = new StatCache(Utils.join(dir, "stats"));
     }
 
     /**
-     * Save the current repo.
+     * Save the current repo.  Only the small mutable records are
+     * written; commits were saved when they were made.  Objects and
+     * commits made by this command are flushed to disk first, and then
+     * the records are replaced together by one WriteBatch, so they
+     * never refer to anything a crash could lose.
+     * The index, HEAD and remotes are written only if BASE was read for
+     * update, under the index lock, which is released here.  Branches
+     * are compared and swapped: under the refs lock, each changed
+     * branch must still have the head it had when this command first
+     * looked at it, or nothing is written.  Whatever the stat cache
+     * learned is saved last, to its own file.
      * @param base Repo to save.
      */
     public static void save(Repo base) {
-        File repo = new File("./.gitlet/repo");
-        try {
-            ObjectOutputStream out =
-                new ObjectOutputStream(new FileOutputStream(repo));
-            out.writeObject(base);
-            out.close();
-        } catch (IOException | ClassCastException excp) {
-            throw new IllegalArgumentException(excp.getMessage());
+        try (Trace.Span span = Trace.span("save repo")) {
+            base._objects.sync();
+            base.commitCollection.sync();
+            WriteBatch batch = new WriteBatch(base._dir);
+            if (base._lock != null) {
+                batch.put(Utils.join(base._dir, "index"),
+                    Utils.serialize(base._index));
+                batch.put(Utils.join(base._dir, "HEAD"),
+                    base._currBranchName.getBytes(StandardCharsets.UTF_8));
+                batch.put(Utils.join(base._dir, "remotes"),
+                    Utils.serialize(base._remotes));
+            }
+            for (String name : base._removedBranches) {
+                batch.delete(Utils.join(base.branchesDir(), name));
+            }
+            for (String name : base._changedBranches) {
+                batch.put(Utils.join(base.branchesDir(), name),
+                    (base.branchCollection.get(name).getHeadId() + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            }
+            try (RepoLock refs = RepoLock.acquire(
+                     Utils.join(base._dir, REFS_LOCK))) {
+                HashSet<String> touched = new HashSet<String>(
+                    base._removedBranches);
+                touched.addAll(base._changedBranches);
+                for (String name : touched) {
+                    String now = base.headOnDisk(name);
+                    String then = base._readHeads.get(name);
+                    if (then == null ? now != null : !then.equals(now)) {
+                        batch.abort();
+                        throw new GitletException(
+                            "Branch " + name + " was changed by "
+                            + "another command; please try again.");
+                    }
+                }
+                batch.commit();
+            }
+            for (String name : base._changedBranches) {
+                base._readHeads.put(name,
+                    base.branchCollection.get(name).getHeadId());
+            }
+            for (String name : base._removedBranches) {
+                base._readHeads.put(name, null);
+            }
+            base._removedBranches.clear();
+            base._changedBranches.clear();
+            base._stats.save();
+            base.release();
+        }
+    }
+
+    /**
+     * Release the index lock, if this repo was read for update, without
+     * saving anything.  For commands such as gc that need the lock but
+     * change none of the records save writes.
+     */
+    public void release() {
+        if (_lock != null) {
+            _lock.close();
+            _lock = null;
         }
     }
 
+    /**
+     * Read the current repo for a command that changes the index, HEAD
+     * or remotes, waiting for any other such command to finish first.
+     * The lock is held until the repo is saved or the command exits.
+     * @return a repo.
+     */
+    public static Repo readForUpdate() {
+        File dir = new File(GITLET_DIR);
+        RepoLock lock;
+        try (Trace.Span span = Trace.span("wait for index lock")) {
+            lock = RepoLock.acquire(Utils.join(dir, INDEX_LOCK));
+        }
+        Repo repo = read(dir);
+        repo._lock = lock;
+        return repo;
+    }
+
+    /**
+     * The id of the head of branch NAME as it is on disk now.
+     * @param name Branch name.
+     * @return the head id, or null if there is no such branch.
+     */
+    private String headOnDisk(String name) {
+        File file = Utils.join(branchesDir(), name);
+        if (!file.isFile()) {
+            return null;
+        }
+        return readRef(file);
+    }
+
+    /**
+     * Read the commit id held by the branch file FILE.
+     * @param file A branch file.
+     * @return the id.
+     */
+    private static String readRef(File file) {
+        String id = Utils.readContentsAsString(file).trim();
+        if (id.length() != Utils.UID_LENGTH) {
+            throw new GitletException("Corrupt branch " + file + ".");
+        }
+        return id;
+    }
+
     /**
      * Read the current repo.
      * @return a repo.
      */
     public static Repo read() {
-        Repo repo = new Repo();
-        File serializedRepo = new File(".gitlet/repo");
-        try {
-            ObjectInputStream inp =
-                new ObjectInputStream(new FileInputStream(serializedRepo));
-            repo = (Repo) inp.readObject();
-            inp.close();
-        } catch (IOException | ClassCastException
-            | ClassNotFoundException excp) {
-            throw new IllegalArgumentException(excp.getMessage());
+        return read(new File(GITLET_DIR));
+    }
+
+    /**
+     * Read the repository stored in DIR.  Only the index, HEAD, the
+     * remotes and the current branch are read up front, after any
+     * write batch a crash interrupted is finished.
+     * @param dir The .gitlet directory.
+     * @return a repo.
+     */
+    @SuppressWarnings("unchecked")
+    static Repo read(File dir) {
+        try (Trace.Span span = Trace.span("read repo")) {
+            WriteBatch.recover(dir);
+            Repo repo = new Repo(dir);
+            repo._index = Utils.readObject(Utils.join(dir, "index"),
+                Index.class);
+            repo._staged = repo._index.staged();
+            repo._untracked = repo._index.removed();
+            repo._remotes = Utils.readObject(Utils.join(dir, "remotes"),
+                HashMap.class);
+            repo._currBranchName =
+                Utils.readContentsAsString(Utils.join(dir, "HEAD"));
+            repo._head = repo.currBranch().getHeadId();
+            return repo;
         }
-        return repo;
     }
 
     /**
-     * Execute add command.
-     * @param fileName file to be staged.
+     * Directory holding one record per branch.
+     * @return the branches directory.
      */
-    public void add(String fileName) throws IOException {
-        File toAdd = new File(fileName);
-        if (!toAdd.exists()) {
-            System.err.println("File does not exist.");
-            System.exit(0);
-        } else {
-            String fileContent = Utils.readContentsAsString(toAdd);
-            String fileSha1 = Utils.sha1(fileContent);
-            if (_staged.containsKey(fileName)) {
-                if (_staged.get(fileName).equals(fileSha1)) {
-                    if (head.getTrackedFiles().get(fileName) != null
-                        && head.getTrackedFiles().get(fileName)
-                        .equals(fileSha1)) {
-                        File staged = new File(".gitlet/.staging/" + fileSha1);
-                        if (staged.exists()) {
-                            staged.delete();
-                        }
-                        if (_staged.containsKey(fileName)) {
-                            _staged.remove(fileName);
-                        }
-                    }
-                } else {
-                    if (head.getTrackedFiles().get(fileName) != null
-                        && head.getTrackedFiles().get(fileName)
-                        .equals(fileSha1)) {
-                        File staged =
-                            new File(".gitlet/.staging/" + fileSha1);
-                        if (staged.exists()) {
-                            staged.delete();
-                        }
-                        if (_staged.containsKey(fileName)) {
-                            _staged.remove(fileName);
-                        }
-                    }
-                    String oldFileSha1 = _staged.get(fileName);
-                    File oldfile =
-                        new File(".gitlet/.staging/" + oldFileSha1);
-                    oldfile.delete();
-                    _staged.remove(fileName);
-                    File newfile =
-                        new File(".gitlet/.staging/" + fileSha1);
-                    newfile.createNewFile();
-                    Utils.writeContents(newfile, fileContent);
-                    _staged.put(fileName, fileSha1);
-                }
-            } else {
-                addHelper(fileName, fileSha1, fileContent);
+    private File branchesDir() {
+        return Utils.join(_dir, "branches");
+    }
+
+    /**
+     * Find a branch by name, reading it if need be.
+     * @param name Branch name.
+     * @return the branch, or null if there is none.
+     */
+    private Branch getBranch(String name) {
+        Branch result = branchCollection.get(name);
+        if (result == null && !_removedBranches.contains(name)) {
+            File file = Utils.join(branchesDir(), name);
+            if (file.isFile()) {
+                result = new Branch(name, readRef(file));
+                branchCollection.put(name, result);
             }
-            if (_untracked.contains(fileName)) {
-                _untracked.remove(fileName);
+            if (!_readHeads.containsKey(name)) {
+                _readHeads.put(name,
+                    result == null ? null : result.getHeadId());
             }
         }
+        return result;
     }
 
     /**
-     * Helper for add command.
-     * @param fileName File name to add.
-     * @param fileSha1 Sha1 of file.
-     * @param fileContent Content of file.
-     * @throws IOException
+     * Check whether a branch exists.
+     * @param name Branch name.
+     * @return Whether branch NAME exists.
      */
-    private void addHelper(String fileName, String fileSha1,
-                           String fileContent) throws IOException {
-        if (head.getTrackedFiles().get(fileName) != null
-            && head.getTrackedFiles().get(fileName).equals(fileSha1)) {
-            File staged =
-                new File(".gitlet/.staging/" + fileSha1);
-            if (staged.exists()) {
-                staged.delete();
+    private boolean hasBranch(String name) {
+        return getBranch(name) != null;
+    }
+
+    /**
+     * Add or replace branch B, marking it to be saved.
+     * @param b The branch.
+     */
+    private void putBranch(Branch b) {
+        getBranch(b.getName());
+        branchCollection.put(b.getName(), b);
+        _removedBranches.remove(b.getName());
+        _changedBranches.add(b.getName());
+    }
+
+    /**
+     * Mark branch B as changed after moving its head.
+     * @param b The branch.
+     */
+    private void touchBranch(Branch b) {
+        _changedBranches.add(b.getName());
+    }
+
+    /**
+     * Remove a branch.
+     * @param name Branch name.
+     */
+    private void removeBranch(String name) {
+        branchCollection.remove(name);
+        _changedBranches.remove(name);
+        _removedBranches.add(name);
+    }
+
+    /**
+     * Names of all branches, including remote-tracking branches such
+     * as origin/master, which live in subdirectories.
+     * @return All branch names.
+     */
+    private ArrayList<String> branchNames() {
+        ArrayList<String> result = new ArrayList<String>();
+        branchNamesIn(branchesDir(), "", result);
+        for (String name : _changedBranches) {
+            if (!result.contains(name)) {
+                result.add(name);
             }
+        }
+        result.removeAll(_removedBranches);
+        return result;
+    }
+
+    /**
+     * Collect names of branch records under DIR into RESULT.
+     * @param dir Directory to scan.
+     * @param prefix Prefix of names in DIR.
+     * @param result Where to put names.
+     */
+    private void branchNamesIn(File dir, String prefix,
+                               ArrayList<String> result) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                branchNamesIn(file, prefix + file.getName() + "/", result);
+            } else {
+                result.add(prefix + file.getName());
+            }
+        }
+    }
+
+    /**
+     * Execute add command on one or more operands, each a file, a
+     * directory (meaning every file under it) or a glob such as "*.txt"
+     * or "**.c" matched against paths under the working directory.  The
+     * files' contents are streamed straight into the object store; the
+     * staging area only records their ids.  Files are hashed and stored
+     * on a bounded pool of threads, skipping any whose stat cache entry
+     * shows it unchanged; the staging area is then updated in one pass
+     * and saved once.
+     * @param operands Files, directories and globs to stage.
+     */
+    public void add(List<String> operands) throws IOException {
+        ArrayList<String> names = new ArrayList<String>();
+        for (String operand : operands) {
+            if (!expandPath(operand, names)) {
+                throw new GitletException("File does not exist.");
+            }
+        }
+        List<String> ids = Parallel.map(names, name -> {
+            File file = new File(name);
+            String id = _stats.cachedId(file);
+            if (id == null || !_objects.contains(id)) {
+                id = _stats.store(file, _objects);
+            }
+            return id;
+        });
+        Map<String, String> tracked = names.size() == 1 ? null
+            : head().getTrackedFiles();
+        for (int i = 0; i < names.size(); i += 1) {
+            String fileName = names.get(i);
+            String fileSha1 = ids.get(i);
+            String trackedSha1 = tracked == null
+                ? head().getTrackedFile(fileName) : tracked.get(fileName);
+            if (fileSha1.equals(trackedSha1)) {
+                _staged.remove(fileName);
+            } else {
+                _staged.put(fileName, fileSha1);
+            }
+            _untracked.remove(fileName);
+        }
+    }
+
+    /**
+     * Add the names of the plain files denoted by OPERAND to NAMES.
+     * @param operand A file, directory or glob.
+     * @param names Where to put file names.
+     * @return False iff OPERAND denotes no file at all.
+     */
+    private boolean expandPath(String operand, List<String> names)
+        throws IOException {
+        File file = new File(operand);
+        if (file.isFile()) {
+            names.add(operand);
+            return true;
+        }
+        Path root = Paths.get(".");
+        PathMatcher matcher = null;
+        if (file.isDirectory()) {
+            root = file.toPath();
+        } else if (operand.matches(".*[*?\\[{].*")) {
+            matcher = FileSystems.getDefault()
+                .getPathMatcher("glob:" + operand);
         } else {
-            File staged =
-                new File(".gitlet/.staging/" + fileSha1);
-            staged.createNewFile();
-            Utils.writeContents(staged, fileContent);
-            _staged.put(fileName, fileSha1);
+            return false;
+        }
+        int before = names.size();
+        try (Stream<Path> paths = Files.walk(root)) {
+            Iterator<Path> iter = paths.iterator();
+            while (iter.hasNext()) {
+                Path path = root.relativize(iter.next());
+                if (path.startsWith(GITLET_DIR)
+                    || !root.resolve(path).toFile().isFile()) {
+                    continue;
+                }
+                if (matcher == null) {
+                    names.add(root.resolve(path).normalize().toString());
+                } else if (matcher.matches(path)) {
+                    names.add(path.toString());
+                }
+            }
         }
+        return names.size() > before;
     }
 
     /**
@@ -191,57 +501,56 @@ public class Repo implements Serializable {
      */
     public void commit(String commitMessage) throws IOException {
         if (_staged.isEmpty() && _untracked.isEmpty()) {
-            System.err.println("No changes added to the commit.");
-            System.exit(0);
+            throw new GitletException("No changes added to the commit.");
         } else {
-            HashMap<String, String> currTracking =
-                new HashMap<String, String>();
-            currTracking.putAll(_staged);
-            for (String name : head.getTrackedFiles().keySet()) {
-                if (!currTracking.containsKey(name)) {
-                    String inheritedFileSha1 = head.getTrackedFiles().get(name);
-                    currTracking.put(name, inheritedFileSha1);
-                }
-            }
-
-            for (String name : head.getTrackedFiles().keySet()) {
-                if (_untracked.contains(name)) {
-                    currTracking.remove(name);
-                }
-            }
-
-            String parentSha1 = head.toSha1();
+            String currTracking = stagedTree();
+            String parentSha1 = _head;
             Date now = new Date();
             Commit c = new Commit(currTracking, parentSha1, commitMessage, now);
-            head.getChildren().add(c.toSha1());
-            commitCollection.put(c.toSha1(), c);
-            currBranch().changeHeadTo(c);
-            head = c;
+            commitCollection.put(c);
+            currBranch().changeHeadTo(c.toSha1());
+            touchBranch(currBranch());
+            _head = c.toSha1();
             _staged.clear();
             _untracked.clear();
         }
     }
 
+    /**
+     * The tree of the next commit: head's tree with the staged files
+     * added and the removed files dropped.  Only the trie nodes on
+     * changed paths are written.
+     * @return Id of the new tree.
+     */
+    private String stagedTree() {
+        HashMap<String, String> changes = new HashMap<String, String>();
+        changes.putAll(_staged);
+        for (String name : _untracked) {
+            changes.put(name, null);
+        }
+        return Tree.update(_objects, head().getTree(), changes);
+    }
+
     /**
      * Execute rm command.
      * @param toRemove File to remove.
      */
     public void rm(String toRemove) {
         if (!_staged.containsKey(toRemove)
-            && !head.getTrackedFiles().containsKey(toRemove)) {
-            System.err.println("No reason to remove the file.");
-            System.exit(0);
+            && !head().getTrackedFiles().containsKey(toRemove)) {
+            throw new GitletException("No reason to remove the file.");
         }
         if (_staged.containsKey(toRemove)) {
             _staged.remove(toRemove);
         }
-        if (head.getTrackedFiles().containsKey(toRemove)) {
+        if (head().getTrackedFiles().containsKey(toRemove)) {
             _untracked.add(toRemove);
         }
         File fileToRm = new File(toRemove);
         if (fileToRm.exists()) {
-            if (head.getTrackedFiles().containsKey(toRemove)) {
+            if (head().getTrackedFiles().containsKey(toRemove)) {
                 fileToRm.delete();
+                _stats.forget(toRemove);
             }
         }
     }
@@ -251,12 +560,24 @@ public class Repo implements Serializable {
      * @return current branch.
      */
     private Branch currBranch() {
-        for (Branch branch : branchCollection.values()) {
-            if (branch.isCurrBranch()) {
-                return branch;
-            }
-        }
-        return null;
+        return getBranch(_currBranchName);
+    }
+
+    /**
+     * The current head commit.
+     * @return the head.
+     */
+    private Commit head() {
+        return commitCollection.get(_head);
+    }
+
+    /**
+     * The head commit of branch B.
+     * @param b A branch of this repo.
+     * @return its head.
+     */
+    private Commit headOf(Branch b) {
+        return commitCollection.get(b.getHeadId());
     }
 
     /**
@@ -264,31 +585,40 @@ public class Repo implements Serializable {
      * @param fileName The name of file to checkout.
      */
     public void checkoutByName(String fileName) {
-        if (!head.getTrackedFiles().containsKey(fileName)) {
-            System.err.println("File does not exist in that commit.");
-            System.exit(0);
+        if (!head().getTrackedFiles().containsKey(fileName)) {
+            throw new GitletException("File does not exist in that commit.");
         } else {
-            File file = new File(fileName);
-            if (file.exists()) {
-                String fileSha1 = head.getTrackedFiles().get(fileName);
-                File theFile =
-                    new File(".gitlet/.staging/" + fileSha1);
-                String f = Utils.readContentsAsString(theFile);
-                Utils.writeContents(file, f);
-            } else {
-                try {
-                    file.createNewFile();
-                    String fileSha1 = head.getTrackedFiles().get(fileName);
-                    File theFile =
-                        new File(".gitlet/.staging/" + fileSha1);
-                    String f = Utils.readContentsAsString(theFile);
-                    Utils.writeContents(file, f);
-                } catch (IOException e) {
-                    System.exit(0);
-                }
-            }
+            new Checkout(_objects, _stats).write(fileName,
+                head().getTrackedFiles().get(fileName));
+        }
+    }
 
+    /**
+     * Return the id of the one commit whose id starts with PREFIX, or
+     * null if there is none.  Exits if PREFIX names more than one.
+     * @param prefix A full or abbreviated commit id.
+     * @return The full commit id.
+     */
+    private String findCommitId(String prefix) {
+        List<String> ids = commitCollection.find(prefix, 2);
+        if (ids.size() > 1) {
+            throw new GitletException(
+                "Commit id " + prefix + " is ambiguous.");
         }
+        return ids.isEmpty() ? null : ids.get(0);
+    }
+
+    /**
+     * Return the commit named by PREFIX.  Exits if there is none.
+     * @param prefix A full or abbreviated commit id.
+     * @return The commit.
+     */
+    private Commit resolveCommit(String prefix) {
+        String id = findCommitId(prefix);
+        if (id == null) {
+            throw new GitletException("No commit with that id exists.");
+        }
+        return commitCollection.get(id);
     }
 
     /**
@@ -297,36 +627,11 @@ public class Repo implements Serializable {
      * @param fileName The file name to checkout.
      */
     public void checkoutLong(String commit, String fileName) {
-        String realCommitID = "NOT FOUND";
-        for (String id : commitCollection.keySet()) {
-            if (id.startsWith(commit)) {
-                realCommitID = id;
-            }
-        }
-        if (!commitCollection.containsKey(realCommitID)) {
-            System.err.println("No commit with that id exists.");
-            System.exit(0);
-        } else if (!commitCollection.get(realCommitID)
-            .getTrackedFiles().containsKey(fileName)) {
-            System.err.println("File does not exist in that commit.");
-            System.exit(0);
+        String fileSha1 = resolveCommit(commit).getTrackedFile(fileName);
+        if (fileSha1 == null) {
+            throw new GitletException("File does not exist in that commit.");
         } else {
-            String fileSha1 = commitCollection.get(realCommitID)
-                .getTrackedFiles().get(fileName);
-            File theFile = new File(".gitlet/.staging/" + fileSha1);
-            String f = Utils.readContentsAsString(theFile);
-
-            File file = new File(fileName);
-            if (file.exists()) {
-                Utils.writeContents(file, f);
-            } else {
-                try {
-                    file.createNewFile();
-                    Utils.writeContents(file, f);
-                } catch (IOException e) {
-                    System.exit(0);
-                }
-            }
+            new Checkout(_objects, _stats).write(fileName, fileSha1);
         }
 
     }
@@ -336,97 +641,82 @@ public class Repo implements Serializable {
      * @param branch The branch to checkout.
      */
     public void checkoutByBranch(String branch) {
-        if (!branchCollection.containsKey(branch)) {
-            System.err.println("No such branch exists.");
-            System.exit(0);
-        } else if (branchCollection.get(branch).isCurrBranch()) {
-            System.err.println("No need to checkout the current branch.");
-            System.exit(0);
+        if (!hasBranch(branch)) {
+            throw new GitletException("No such branch exists.");
+        } else if (branch.equals(_currBranchName)) {
+            throw new GitletException(
+                "No need to checkout the current branch.");
         } else {
-            Branch theBranch = branchCollection.get(branch);
-            Commit theBranchHead = theBranch.getHead();
-            HashMap<String, String> currTracking
-                = head.getTrackedFiles();
-            HashMap<String, String> theBranchTracking
-                = theBranchHead.getTrackedFiles();
-            for (String s : theBranchTracking.keySet()) {
-                if (!currTracking.containsKey(s)) {
-                    File theFile = new File(s);
-                    if (theFile.exists()) {
-                        System.err.println("There is an untracked "
-                            + "file in the way; "
-                            + "delete it or add it first.");
-                        System.exit(0);
-                    }
-                }
-            }
-            for (String file : theBranchTracking.keySet()) {
-                checkoutLong(theBranchHead.toSha1(), file);
-            }
-            for (String file : currTracking.keySet()) {
-                if (!theBranchTracking.containsKey(file)) {
-                    File theFile = new File(file);
-                    if (theFile.exists()) {
-                        theFile.delete();
-                    }
-                }
-            }
-            currBranch().disCurr();
-            theBranch.toCurr();
-            head = theBranch.getHead();
+            Branch theBranch = getBranch(branch);
+            checkoutCommit(headOf(theBranch));
+            _currBranchName = branch;
+            _head = theBranch.getHeadId();
             _staged.clear();
         }
     }
 
     /**
-     * Execute log command.
+     * Replace the working files of the head commit with those of TARGET.
+     * Only files whose blobs differ between the two trees are written or
+     * deleted; files the trees agree on are left exactly as they are.
+     * Exits if an untracked working file would be overwritten.
+     * @param target The commit to check out.
      */
-    public void log() {
-        Commit curr = head;
-        while (curr != null && !curr.isRoot()) {
-            System.out.println("===");
-            System.out.println("commit " + curr.toSha1());
-            if (curr.getParents().size() == 2) {
-                System.out.println("Merge: " + curr.getParent1().substring(0, 7)
-                    + " " + curr.getParent2().substring(0, 7));
+    private void checkoutCommit(Commit target) {
+        HashMap<String, String[]> changes =
+            Tree.diff(_objects, head().getTree(), target.getTree());
+        for (String name : changes.keySet()) {
+            if (changes.get(name)[0] == null && new File(name).exists()) {
+                throw new GitletException("There is an untracked "
+                    + "file in the way; "
+                    + "delete it or add it first.");
             }
-            System.out.println(curr.timeToString());
-            System.out.println(curr.getMessage());
-            System.out.println();
-            curr = commitCollection.get(curr.getParent());
         }
-        System.out.println("===");
-        System.out.println("commit " + curr.toSha1());
-        if (curr.getParents().size() == 2) {
-            System.out.println("Merge: " + curr.getParent1().substring(0, 7)
-                + " " + curr.getParent2().substring(0, 7));
+        new Checkout(_objects, _stats).apply(changes);
+    }
+
+    /**
+     * Execute log command.
+     * @param out Where, and how much, to print.
+     */
+    public void log(LogWriter out) {
+        log(head(), out);
+    }
+
+    /**
+     * Execute log command, starting from the commit named by PREFIX.
+     * @param prefix A full or abbreviated commit id.
+     * @param out Where, and how much, to print.
+     */
+    public void log(String prefix, LogWriter out) {
+        log(resolveCommit(prefix), out);
+    }
+
+    /**
+     * Print the history of START, following first parents, reading
+     * each commit only once the one before it has been printed.
+     * @param start The newest commit to print.
+     * @param out Where, and how much, to print.
+     */
+    private void log(Commit start, LogWriter out) {
+        Commit curr = start;
+        while (curr != null && out.write(curr)) {
+            curr = commitCollection.get(curr.getParent());
         }
-        System.out.println(curr.timeToString());
-        System.out.println(curr.getMessage());
+        out.close();
     }
 
     /**
-     * Execute global-log command.
+     * Execute global-log command, printing every commit, newest first.
+     * @param out Where, and how much, to print.
      */
-    public void globalLog() {
-        Commit root = null;
-        for (String commit : commitCollection.keySet()) {
-            Commit curr = commitCollection.get(commit);
-            if (!curr.isRoot()) {
-                System.out.println("===");
-                System.out.println("commit " + curr.toSha1());
-                System.out.println(curr.timeToString());
-                System.out.println(curr.getMessage());
-                System.out.println();
-            } else {
-                root = curr;
+    public void globalLog(LogWriter out) {
+        for (String id : commitCollection.newestFirst()) {
+            if (!out.write(commitCollection.get(id))) {
+                break;
             }
         }
-        System.out.println("===");
-        System.out.println("commit " + root.toSha1());
-        System.out.println(root.timeToString());
-        System.out.println(root.getMessage());
-        System.out.println();
+        out.close();
     }
 
     /**
@@ -434,12 +724,11 @@ public class Repo implements Serializable {
      * @param branchName The name of the branch to add.
      */
     public void branch(String branchName) {
-        if (branchCollection.containsKey(branchName)) {
-            System.err.println("A branch with that name already exists.");
-            System.exit(0);
+        if (hasBranch(branchName)) {
+            throw new GitletException(
+                "A branch with that name already exists.");
         } else {
-            Branch branch = new Branch(branchName, head);
-            branchCollection.put(branchName, branch);
+            putBranch(new Branch(branchName, _head));
         }
     }
 
@@ -448,85 +737,70 @@ public class Repo implements Serializable {
      * @param branchName The name of the branch to add.
      */
     public void rmBranch(String branchName) {
-        if (!branchCollection.containsKey(branchName)) {
-            System.err.println("A branch with that name does not exist.");
-            System.exit(0);
-        } else if (branchCollection.get(branchName).isCurrBranch()) {
-            System.err.println("Cannot remove the current branch.");
-            System.exit(0);
+        if (!hasBranch(branchName)) {
+            throw new GitletException(
+                "A branch with that name does not exist.");
+        } else if (branchName.equals(_currBranchName)) {
+            throw new GitletException("Cannot remove the current branch.");
         } else {
-            branchCollection.remove(branchName);
+            removeBranch(branchName);
         }
     }
 
     /**
-     * Execute reset command.
+     * Execute reset command.  Unlike a branch checkout, this also
+     * restores tracked files that were deleted or edited in the working
+     * directory.
      * @param commit The commit to reset to.
      */
     public void reset(String commit) {
-        String realCommitID = "NOT FOUND";
-        for (String id : commitCollection.keySet()) {
-            if (id.startsWith(commit)) {
-                realCommitID = id;
-            }
-        }
-        if (!commitCollection.containsKey(realCommitID)) {
-            System.err.println("No commit with that id exists.");
-            System.exit(0);
-        }
-        HashMap<String, String> theCommit = commitCollection
-            .get(realCommitID).getTrackedFiles();
-        Set<String> trackedNames = theCommit.keySet();
-        File all = new File("./");
-        File[] allFiles = all.listFiles();
-
-        for (File file : allFiles) {
-            String fileName = file.getName();
-            if (!head.getTrackedFiles().containsKey(fileName)
-                && trackedNames.contains(fileName)) {
-                System.err.println("There is an untracked "
-                    + "file in the way"
-                    + "; delete it or add it first.");
-                System.exit(0);
-            }
-        }
-        for (String name : trackedNames) {
-            checkoutLong(realCommitID, name);
-        }
-        for (String name : head.getTrackedFiles().keySet()) {
-            if (!trackedNames.contains(name)) {
-                File tmp = new File(name);
-                if (tmp.exists()) {
-                    tmp.delete();
-                }
-            }
-        }
-        currBranch().changeHeadTo(commitCollection.get(realCommitID));
-        this.head = currBranch().getHead();
+        Commit target = resolveCommit(commit);
+        checkoutCommit(target);
+        new Checkout(_objects, _stats)
+            .restore(target.getTrackedFiles());
+        currBranch().changeHeadTo(target.toSha1());
+        touchBranch(currBranch());
+        _head = currBranch().getHeadId();
         _staged.clear();
         _untracked.clear();
     }
 
     /**
      * Execute find command.
-     * @param key The commit to find.
+     * @param key The commit message to find.
      */
     public void find(String key) {
-        Boolean found = false;
-        if (commitCollection.isEmpty()) {
-            System.err.println("Found no commit with that message.");
-            System.exit(0);
-        } else {
-            for (Commit commit : commitCollection.values()) {
-                if (commit.getMessage().equals(key)) {
-                    found = true;
-                    System.out.println(commit.toSha1());
-                }
-            }
+        printFound(commitCollection.withMessage(key));
+    }
+
+    /**
+     * Execute find command, matching commits whose messages contain
+     * every word of WORDS, ignoring case.
+     * @param words The words to find.
+     */
+    public void findWords(String words) {
+        printFound(commitCollection.withWords(words));
+    }
+
+    /**
+     * Execute find command, matching commits whose messages contain
+     * TEXT.
+     * @param text The text to find.
+     */
+    public void findSubstring(String text) {
+        printFound(commitCollection.withSubstring(text));
+    }
+
+    /**
+     * Print IDS, one per line.  Exits if there are none.
+     * @param ids The commit ids found.
+     */
+    private void printFound(List<String> ids) {
+        if (ids.isEmpty()) {
+            throw new GitletException("Found no commit with that message.");
         }
-        if (!found) {
-            System.err.println("Found no commit with that message.");
-            System.exit(0);
+        for (String id : ids) {
+            System.out.println(id);
         }
     }
 
@@ -536,10 +810,10 @@ public class Repo implements Serializable {
     public void status() {
         System.out.println("=== Branches ===");
         Object[] branches =
-            new ArrayList<String>(branchCollection.keySet()).toArray();
+            branchNames().toArray();
         Arrays.sort(branches);
         for (Object branch : branches) {
-            if (branch.equals(currBranch().getName())) {
+            if (branch.equals(_currBranchName)) {
                 System.out.println("*" + branch);
             } else {
                 System.out.println(branch);
@@ -581,34 +855,108 @@ public class Repo implements Serializable {
         for (File file : allFiles) {
             if (Utils.checkPlainFile(file)) {
                 if (!_staged.containsKey(file.getName())
-                    && (!head.getTrackedFiles().containsKey(file.getName()))) {
+                    && !head().getTrackedFiles()
+                    .containsKey(file.getName())) {
                     System.out.println(file.getName());
                 }
             }
         }
+        _stats.save();
     }
 
     /**
-     * Helper for modified.
+     * Print the differences between the head commit and the working
+     * directory, as unified diffs.  Files whose size, modification time
+     * and inode match the stat cache are compared by id without being
+     * read.
+     * @param fileName The only file to compare, or null for every file
+     *                 tracked or staged.
+     * @throws IOException
+     */
+    public void diff(String fileName) throws IOException {
+        HashMap<String, String> tracked = head().getTrackedFiles();
+        TreeSet<String> names = new TreeSet<String>();
+        if (fileName != null) {
+            if (!tracked.containsKey(fileName)
+                && !_staged.containsKey(fileName)
+                && !new File(fileName).isFile()) {
+                throw new GitletException("File does not exist.");
+            }
+            names.add(fileName);
+        } else {
+            names.addAll(tracked.keySet());
+            names.addAll(_staged.keySet());
+        }
+        try (DiffWriter out = new DiffWriter(Main.output())) {
+            for (String name : names) {
+                File file = new File(name);
+                String before = tracked.get(name);
+                String after = file.isFile() ? _stats.hash(file) : null;
+                if (before == null ? after != null : !before.equals(after)) {
+                    out.write(name, source(before),
+                        after == null ? null
+                            : () -> new FileInputStream(file));
+                }
+            }
+        }
+        _stats.save();
+    }
+
+    /**
+     * Print the differences between two commits, as unified diffs.  Only
+     * the parts of their trees that differ are read.
+     * @param first A branch name or commit id.
+     * @param second A branch name or commit id.
+     * @throws IOException
+     */
+    public void diff(String first, String second) throws IOException {
+        Branch from = mergeTarget(first), to = mergeTarget(second);
+        if (from == null || to == null) {
+            throw new GitletException("No commit with that id exists.");
+        }
+        TreeMap<String, String[]> changes = new TreeMap<String, String[]>(
+            Tree.diff(_objects, headOf(from).getTree(),
+                headOf(to).getTree()));
+        try (DiffWriter out = new DiffWriter(Main.output())) {
+            for (Map.Entry<String, String[]> change : changes.entrySet()) {
+                out.write(change.getKey(), source(change.getValue()[0]),
+                    source(change.getValue()[1]));
+            }
+        }
+    }
+
+    /**
+     * Return the object ID as a source for a diff.
+     * @param id An object id, or null.
+     * @return A source reading ID, or null if ID is null.
+     */
+    private DiffWriter.Source source(String id) {
+        return id == null ? null : () -> _objects.open(id);
+    }
+
+    /**
+     * Helper for modified.  Files whose size, modification time and
+     * inode match the stat cache are not read.
      * @param file File to check.
      * @return Whether a file is modified.
      */
     public boolean modifiedHelper(File file) {
         boolean res = false;
         String fileName = file.getName();
+        String fileSha1 = null;
 
-        if (head.getTrackedFiles().containsKey(fileName)) {
-            String fileStream = Utils.readContentsAsString(file);
-            String fileSha1 = Utils.sha1(fileStream);
-            if (!head.getTrackedFiles().get(fileName).equals(fileSha1)) {
+        if (head().getTrackedFiles().containsKey(fileName)) {
+            fileSha1 = _stats.hash(file);
+            if (!head().getTrackedFiles().get(fileName).equals(fileSha1)) {
                 if (!_staged.containsKey(fileName)) {
                     res = true;
                 }
             }
         }
         if (_staged.containsKey(fileName)) {
-            String fileStream = Utils.readContentsAsString(file);
-            String fileSha1 = Utils.sha1(fileStream);
+            if (fileSha1 == null) {
+                fileSha1 = _stats.hash(file);
+            }
             if (!_staged.get(fileName).equals(fileSha1)) {
                 res = true;
             }
@@ -623,15 +971,15 @@ public class Repo implements Serializable {
         for (String fileName : _staged.keySet()) {
             File toCheck = new File(fileName);
             if (!toCheck.exists()) {
-                System.out.println(toCheck.getName() + " (deleted)");
+                System.out.println(fileName + " (deleted)");
             }
         }
 
-        for (String fileName : head.getTrackedFiles().keySet()) {
+        for (String fileName : head().getTrackedFiles().keySet()) {
             if (!_untracked.contains(fileName)) {
                 File theFile = new File(fileName);
                 if (!theFile.exists()) {
-                    System.out.println(theFile.getName() + " (deleted)");
+                    System.out.println(fileName + " (deleted)");
                 }
             }
         }
@@ -643,37 +991,50 @@ public class Repo implements Serializable {
      * @throws IOException
      */
     public void mergeErrs(String branch) throws IOException {
-        if (!branchCollection.containsKey(branch)) {
-            System.err.println("A branch with that name does not exist.");
-            System.exit(0);
+        if (mergeTarget(branch) == null) {
+            throw new GitletException(
+                "A branch with that name does not exist.");
         }
         if (!_staged.isEmpty() || !_untracked.isEmpty()) {
-            System.err.println("You have uncommitted changes.");
-            System.exit(0);
+            throw new GitletException("You have uncommitted changes.");
         }
-        if (branchCollection.get(branch).isCurrBranch()) {
-            System.err.println("Cannot merge a branch with itself.");
-            System.exit(0);
+        if (branch.equals(_currBranchName)) {
+            throw new GitletException("Cannot merge a branch with itself.");
         }
-        Branch theBranch = branchCollection.get(branch);
-        Commit theBranchHead = theBranch.getHead();
+        Commit theBranchHead = headOf(mergeTarget(branch));
         HashMap<String, String> currTracking =
-            head.getTrackedFiles();
+            head().getTrackedFiles();
         HashMap<String, String> theBranchTracking =
             theBranchHead.getTrackedFiles();
-        Branch givenBranch = branchCollection.get(branch);
         for (String s : theBranchTracking.keySet()) {
             if (!currTracking.containsKey(s)) {
                 File theFile = new File(s);
                 if (theFile.exists()) {
-                    System.err.println("There is an untracked"
+                    throw new GitletException("There is an untracked"
                         + " file in the way"
                         + "; delete it or add it first.");
-                    System.exit(0);
                 }
             }
         }
     }
+    /**
+     * Return the branch NAME, or, if there is no such branch and NAME is
+     * at least MIN_ID_PREFIX hex digits, an unsaved branch whose head is
+     * the commit NAME abbreviates, or null.
+     * @param name A branch name or commit id.
+     * @return The branch to merge in.
+     */
+    private Branch mergeTarget(String name) {
+        if (hasBranch(name)) {
+            return getBranch(name);
+        }
+        if (!name.matches("[0-9a-f]{" + MIN_ID_PREFIX + ",40}")) {
+            return null;
+        }
+        String id = findCommitId(name);
+        return id == null ? null : new Branch(name, id);
+    }
+
     /**
      * Execute merge command.
      * @param branch branch to merge to.
@@ -682,12 +1043,12 @@ public class Repo implements Serializable {
     public void merge(String branch) throws IOException {
         Boolean foundConflict = false;
         mergeErrs(branch);
-        Branch givenBranch = branchCollection.get(branch);
+        Branch givenBranch = mergeTarget(branch);
         Commit splitPoint = splitPointHelper(givenBranch);
         HashMap<String, String> spTracked = splitPoint.getTrackedFiles();
         HashMap<String, String> targetBranchTracked =
-            givenBranch.getHead().getTrackedFiles();
-        HashMap<String, String> currTracked = head.getTrackedFiles();
+            headOf(givenBranch).getTrackedFiles();
+        HashMap<String, String> currTracked = head().getTrackedFiles();
         if (checkCase2(splitPoint, givenBranch)) {
             return;
         }
@@ -698,8 +1059,7 @@ public class Repo implements Serializable {
                     .equals(spTracked.get(fileName))
                     && currTracked.get(fileName)
                     .equals(spTracked.get(fileName))) {
-                    checkoutLong(givenBranch.getHead()
-                        .toSha1(), fileName);
+                    checkoutLong(givenBranch.getHeadId(), fileName);
                     _staged.put(fileName, targetBranchTracked.get(fileName));
                 } else if (!targetBranchTracked.get(fileName)
                     .equals(spTracked.get(fileName))
@@ -707,8 +1067,8 @@ public class Repo implements Serializable {
                     .equals(spTracked.get(fileName)))) {
                     if (!currTracked.get(fileName)
                         .equals(targetBranchTracked.get(fileName))) {
-                        conflictReport(fileName, branch);
-                        foundConflict = true;
+                        foundConflict = conflictReport(fileName, branch,
+                            spTracked.get(fileName)) || foundConflict;
                     }
                 }
             } else if (!targetBranchTracked.containsKey(fileName)
@@ -720,15 +1080,15 @@ public class Repo implements Serializable {
                     }
                     _untracked.add(fileName);
                 } else {
-                    conflictReport(fileName, branch);
-                    foundConflict = true;
+                    foundConflict = conflictReport(fileName, branch,
+                        spTracked.get(fileName)) || foundConflict;
                 }
             } else if (targetBranchTracked.containsKey(fileName)
                 && (!currTracked.containsKey(fileName))) {
                 if (!spTracked.get(fileName)
                     .equals(targetBranchTracked.get(fileName))) {
-                    conflictReport(fileName, branch);
-                    foundConflict = true;
+                    foundConflict = conflictReport(fileName, branch,
+                        spTracked.get(fileName)) || foundConflict;
                 }
             }
         }
@@ -743,29 +1103,16 @@ public class Repo implements Serializable {
      * @return true or false.
      */
     private boolean checkCase2(Commit splitPoint, Branch givenBranch) {
-        if (splitPoint.toSha1().equals(head.toSha1())) {
+        if (splitPoint.toSha1().equals(_head)) {
             System.out.println("Current branch fast-forwarded.");
-            for (String file : givenBranch.getHead()
-                .getTrackedFiles().keySet()) {
-                checkoutLong(givenBranch.getHead().toSha1(), file);
-            }
-            for (String file : currBranch().getHead()
-                .getTrackedFiles().keySet()) {
-                if (!givenBranch.getHead()
-                    .getTrackedFiles().containsKey(file)) {
-                    File theFile = new File(file);
-                    if (theFile.exists()) {
-                        theFile.delete();
-                    }
-                }
-            }
-            currBranch().changeHeadTo(givenBranch.getHead());
+            checkoutCommit(headOf(givenBranch));
+            currBranch().changeHeadTo(givenBranch.getHeadId());
+            touchBranch(currBranch());
             return true;
         } else if (splitPoint.toSha1()
-            .equals(givenBranch.getHead().toSha1())) {
+            .equals(givenBranch.getHeadId())) {
             System.out.println("Given branch is "
                 + "an ancestor of the current branch.");
-            givenBranch.changeHeadTo(head);
             return true;
         }
         return false;
@@ -792,11 +1139,11 @@ public class Repo implements Serializable {
                 if (currTracked.containsKey(s)) {
                     if (!currTracked.get(s)
                         .equals(targetBranchTracked.get(s))) {
-                        conflictReport(s, branch);
-                        foundConflict = true;
+                        foundConflict = conflictReport(s, branch, null)
+                            || foundConflict;
                     }
                 } else if (!currTracked.containsKey(s)) {
-                    checkoutLong(givenBranch.getHead().toSha1(), s);
+                    checkoutLong(givenBranch.getHeadId(), s);
                     _staged.put(s, targetBranchTracked.get(s));
                 }
             }
@@ -813,37 +1160,20 @@ public class Repo implements Serializable {
     public void mergedCommit(String targetBranch,
                              boolean conflict) throws IOException {
         if (_staged.isEmpty() && _untracked.isEmpty()) {
-            System.err.println("No changes added to the commit.");
-            System.exit(0);
+            throw new GitletException("No changes added to the commit.");
         } else {
-            HashMap<String, String> currTracking =
-                new HashMap<String, String>();
-            currTracking.putAll(_staged);
-            for (String name : head.getTrackedFiles().keySet()) {
-                if (!currTracking.containsKey(name)) {
-                    String inheritedFileSha1 = head.getTrackedFiles().get(name);
-                    currTracking.put(name, inheritedFileSha1);
-                }
-            }
-
-            for (String name : head.getTrackedFiles().keySet()) {
-                if (_untracked.contains(name)) {
-                    currTracking.remove(name);
-                }
-            }
-
+            String currTracking = stagedTree();
             String commitMessage = "Merged " + targetBranch
                 + " into " + currBranch().getName() + ".";
-            String parentSha1 = head.toSha1();
-            String parent2Sha1 = branchCollection
-                .get(targetBranch).getHead().toSha1();
+            String parentSha1 = _head;
+            String parent2Sha1 = mergeTarget(targetBranch).getHeadId();
             Date now = new Date();
             Commit c = new Commit(currTracking, parentSha1,
                 parent2Sha1, commitMessage, now);
-            head.getChildren().add(c.toSha1());
-            commitCollection.put(c.toSha1(), c);
-            currBranch().changeHeadTo(c);
-            head = c;
+            commitCollection.put(c);
+            currBranch().changeHeadTo(c.toSha1());
+            touchBranch(currBranch());
+            _head = c.toSha1();
             _staged.clear();
             _untracked.clear();
 
@@ -854,104 +1184,75 @@ public class Repo implements Serializable {
     }
 
     /**
-     * Report conflict.
+     * Merge the current and given versions of a file in the working
+     * directory and stage the result, marking any conflicts.
      * @param fileName File name.
      * @param targetBranch Target branch.
+     * @param baseSha1 The file at the split point, or null if absent.
+     * @return Whether the merge had conflicts.
      * @throws IOException
      */
-    private void conflictReport(String fileName,
-                                String targetBranch) throws IOException {
-        String raw = "";
-        String newF = "";
+    private boolean conflictReport(String fileName, String targetBranch,
+                                   String baseSha1) throws IOException {
         File toWrite = new File(fileName);
-        StringBuilder newContent = new StringBuilder();
-        String rawFileSha1 = head.getTrackedFiles().get(fileName);
-        File readFrom = new File(".gitlet/.staging/" + rawFileSha1);
-        String newFileSha1 = branchCollection.get(targetBranch)
-            .getHead().getTrackedFiles().get(fileName);
-        File newReadFrom = new File(".gitlet/.staging/" + newFileSha1);
-        newContent.append("<<<<<<< HEAD\n");
-        if (readFrom.exists() && newReadFrom.exists()) {
-            raw = Utils.readContentsAsString(readFrom);
-            newF = Utils.readContentsAsString(newReadFrom);
-            newContent.append(raw);
-            newContent.append("=======\n");
-            newContent.append(newF);
-        } else if (readFrom.exists()) {
-            raw = Utils.readContentsAsString(readFrom);
-            newContent.append(raw);
-            newContent.append("=======\n");
-        } else if (newReadFrom.exists()) {
-            newF = Utils.readContentsAsString(newReadFrom);
-            newContent.append("=======\n");
-            newContent.append(newF);
-        }
-
-        newContent.append(">>>>>>>\n");
+        String rawFileSha1 = head().getTrackedFiles().get(fileName);
+        String newFileSha1 = headOf(mergeTarget(targetBranch))
+            .getTrackedFiles().get(fileName);
         if (toWrite.exists()) {
             toWrite.delete();
         }
-        toWrite.createNewFile();
-        Utils.writeContents(toWrite, newContent.toString());
-
-        String written = Utils.readContentsAsString(toWrite);
-        File staged = new File(".gitlet/.staging/"
-            + Utils.sha1(written));
-        staged.createNewFile();
-        Utils.writeContents(staged, written);
-        _staged.put(fileName, Utils.sha1(written));
+        boolean conflict;
+        try (OutputStream out = new BufferedOutputStream(
+                 new FileOutputStream(toWrite), ObjectStore.BUFFER_SIZE)) {
+            conflict = new LineMerge(_objects).merge(baseSha1,
+                rawFileSha1, newFileSha1, out);
+        }
+        _staged.put(fileName, _objects.putFile(toWrite));
+        return conflict;
     }
 
     /**
      * Helper for split point.
      * @param mergeWith Branch to merge with.
-     * @return
+     * @return The latest common ancestor of head and MERGEWITH's head().
      */
     private Commit splitPointHelper(Branch mergeWith) {
-        Commit targetHead = mergeWith.getHead();
-        HashSet<String> allTargetParents = findAllParents(targetHead.toSha1());
-        HashSet<String> visited = new HashSet<String>();
-        LinkedList<Commit> theList = new LinkedList<Commit>();
-        theList.add(head);
-
-        while (!theList.isEmpty()) {
-            Commit first = theList.poll();
-            if (visited.contains(first.toSha1())) {
-                continue;
-            }
-            if (allTargetParents.contains(first.toSha1())) {
-                return first;
-            }
-            HashSet<String> parents = first.getParents();
-            for (String par : parents) {
-                theList.add(commitCollection.get(par));
-            }
-            visited.add(first.toSha1());
-        }
-
-        return null;
+        return commitCollection.mergeBase(_head,
+            mergeWith.getHeadId());
     }
 
     /**
-     * Finding all parents.
-     * @param commit The commit.
-     * @return HashSet of all parents for the given commit.
-     */
-    private HashSet<String> findAllParents(String commit) {
-        HashSet<String> res = new HashSet<String>();
-        Commit theCommit = commitCollection.get(commit);
-        Stack<Commit> s = new Stack<Commit>();
-        s.push(theCommit);
-        while (!s.empty()) {
-            Commit first = s.pop();
-            res.add(first.toSha1());
-            for (String par : first.getParents()) {
-                if (!res.contains(par) && (!par.equals(""))) {
-                    s.push(commitCollection.get(par));
+     * Execute gc command: pack every object, storing each version of a
+     * file as a delta against the version of the same path before it.
+     * Commits are visited oldest first and compared with their first
+     * parents, so a blob's base is always a blob seen earlier, and no
+     * chain of deltas grows longer than Pack.MAX_DEPTH.
+     */
+    public void gc() {
+        HashMap<String, String> bases = new HashMap<String, String>();
+        HashMap<String, Integer> depths = new HashMap<String, Integer>();
+        List<String> ids = commitCollection.newestFirst();
+        for (int i = ids.size() - 1; i >= 0; i -= 1) {
+            Commit c = commitCollection.get(ids.get(i));
+            Commit parent = commitCollection.get(c.getParent1());
+            String from = parent == null ? Tree.EMPTY : parent.getTree();
+            for (String[] change
+                     : Tree.diff(_objects, from, c.getTree()).values()) {
+                String old = change[0], blob = change[1];
+                if (blob == null || depths.containsKey(blob)) {
+                    continue;
+                }
+                int depth = old == null || !depths.containsKey(old) ? 0
+                    : depths.get(old) + 1;
+                if (depth > 0 && depth <= Pack.MAX_DEPTH) {
+                    bases.put(blob, old);
+                    depths.put(blob, depth);
+                } else {
+                    depths.put(blob, 0);
                 }
             }
         }
-        return res;
+        _objects.repack(bases);
     }
 
     /**
@@ -961,8 +1262,8 @@ public class Repo implements Serializable {
      */
     public void addRemote(String remoteName, String remoteDir) {
         if (_remotes.containsKey(remoteName)) {
-            System.err.println("A remote with that name already exists.");
-            System.exit(0);
+            throw new GitletException(
+                "A remote with that name already exists.");
         }
         _remotes.put(remoteName, remoteDir);
     }
@@ -973,8 +1274,8 @@ public class Repo implements Serializable {
      */
     public void rmRemote(String remoteName) {
         if (!_remotes.containsKey(remoteName)) {
-            System.err.println("A remote with that name does not exist.");
-            System.exit(0);
+            throw new GitletException(
+                "A remote with that name does not exist.");
         }
         _remotes.remove(remoteName);
     }
@@ -989,52 +1290,28 @@ public class Repo implements Serializable {
         String remoteGitlet = _remotes.get(remoteName);
         File newFile = new File(remoteGitlet);
         if (!(newFile.exists())) {
-            System.err.println("Remote directory not found.");
-            System.exit(0);
-        }
-        String remoteAddress = remoteGitlet + "/repo";
-        File remoteGitRepo = new File(remoteAddress);
-        Repo remoteRepo = Utils.readObject(remoteGitRepo, Repo.class);
-
-        Commit rmBranchHead = remoteRepo
-            .branchCollection.get(rmBranchName).getHead();
-        HashSet<String> allParents = findAllParents(head.toSha1());
-        if (!allParents.contains(rmBranchHead.toSha1())) {
-            System.err.println("Please pull down "
+            throw new GitletException("Remote directory not found.");
+        }
+        Repo remoteRepo = Repo.read(newFile);
+        Branch rmBranch = remoteRepo.getBranch(rmBranchName);
+        String rmHead = rmBranch == null ? null
+            : rmBranch.getHeadId();
+        if (rmHead != null && (!commitCollection.contains(rmHead)
+            || !commitCollection.isAncestor(rmHead, _head))) {
+            throw new GitletException("Please pull down "
                 + "remote changes before pushing.");
-            System.exit(0);
         } else {
-            Commit p = head;
-            while (!p.toSha1().equals(rmBranchHead.toSha1())) {
-                remoteRepo.commitCollection.put(p.toSha1(), p);
-                Collection<String> pTracking = p.getTrackedFiles().values();
-                for (String fileSha1 : pTracking) {
-                    File curr =
-                        new File("./.gitlet/.staging/" + fileSha1);
-                    String fileStream = Utils.readContentsAsString(curr);
-                    File targetToStage =
-                        new File(remoteGitlet + "/.staging/" + fileSha1);
-                    if (!targetToStage.exists()) {
-                        targetToStage.createNewFile();
-                    }
-                    Utils.writeContents(targetToStage, fileStream);
-                }
-                p = commitCollection.get(p.getParent1());
-            }
-            if (!remoteRepo.branchCollection.containsKey(rmBranchName)) {
-                Branch newBranch =
-                    new Branch(rmBranchName,
-                        remoteRepo.currBranch().getHead());
-                remoteRepo.branchCollection.put(rmBranchName, newBranch);
+            new Transfer(commitCollection, _objects,
+                remoteRepo.commitCollection, remoteRepo._objects)
+                .copy(head());
+            if (rmBranch == null) {
+                rmBranch = new Branch(rmBranchName, _head);
+                remoteRepo.putBranch(rmBranch);
+            } else {
+                rmBranch.changeHeadTo(_head);
+                remoteRepo.touchBranch(rmBranch);
             }
-
-            Commit t = remoteRepo.
-                commitCollection.get(head.toSha1());
-            remoteRepo.branchCollection.
-                get(rmBranchName).changeHeadTo(t);
-            remoteRepo.head = remoteRepo.
-                branchCollection.get(rmBranchName).getHead();
-            Utils.writeObject(remoteGitRepo, remoteRepo);
+            Repo.save(remoteRepo);
         }
     }
 
@@ -1048,40 +1325,19 @@ public class Repo implements Serializable {
         String remoteGitlet = _remotes.get(remoteName);
         File newFile = new File(remoteGitlet);
         if (!(newFile.exists())) {
-            System.err.println("Remote directory not found.");
-            System.exit(0);
-        }
-        String remoteAddress = remoteGitlet + "/repo";
-        File remoteGitRepo = new File(remoteAddress);
-        Repo remoteRepo = Utils.readObject(remoteGitRepo, Repo.class);
-        if (!remoteRepo.branchCollection.containsKey(rmBranchName)) {
-            System.out.println("That remote does not have that branch.");
-            System.exit(0);
-        }
-        Commit rmBranchHead = remoteRepo
-            .branchCollection.get(rmBranchName).getHead();
-        Commit p = rmBranchHead;
-        while (!commitCollection.containsKey(p.toSha1())) {
-            this.commitCollection.put(p.toSha1(), p);
-            Collection<String> pTracking = p.getTrackedFiles().values();
-            for (String fileSha1 : pTracking) {
-                File target =
-                    new File(remoteGitlet + "/.staging/" + fileSha1);
-                String fileStream = Utils.readContentsAsString(target);
-                File curr =
-                    new File("./.gitlet/.staging/" + fileSha1);
-                if (!curr.exists()) {
-                    curr.createNewFile();
-                }
-                Utils.writeContents(curr, fileStream);
-            }
-            p = remoteRepo.commitCollection.get(p.getParent1());
+            throw new GitletException("Remote directory not found.");
+        }
+        Repo remoteRepo = Repo.read(newFile);
+        if (!remoteRepo.hasBranch(rmBranchName)) {
+            throw new GitletException(
+                "That remote does not have that branch.");
         }
+        Commit rmBranchHead =
+            remoteRepo.headOf(remoteRepo.getBranch(rmBranchName));
+        new Transfer(remoteRepo.commitCollection, remoteRepo._objects,
+            commitCollection, _objects).copy(rmBranchHead);
         String newBranchName = remoteName + "/" + rmBranchName;
-        Branch newBranch =
-            new Branch(newBranchName,
-                commitCollection.get(rmBranchHead.toSha1()));
-        this.branchCollection.put(newBranchName, newBranch);
+        putBranch(new Branch(newBranchName, rmBranchHead.toSha1()));
     }
 
     /**
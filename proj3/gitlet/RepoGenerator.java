@@ -0,0 +1,217 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Builds a synthetic repository in the current directory, for
+ *  measuring commands on repositories of a chosen shape: FILES text
+ *  files of about SIZE bytes each, a history DEPTH commits deep on
+ *  master, each changing a tenth of the files, and BRANCHES branches
+ *  forking from master at even intervals, each with two commits of its
+ *  own.  Files change a line at a time, so branches mostly merge
+ *  cleanly.  The same options and SEED always give the same files and
+ *  messages.  Run as
+ *      java gitlet.RepoGenerator [--files N] [--size BYTES]
+ *          [--depth N] [--branches N] [--seed N]
+ *  in an empty directory.
+ *  @author Laiming Huang
+ */
+public class RepoGenerator {
+
+    /** Bytes in each generated line, counting its newline. */
+    static final int LINE_LENGTH = 64;
+
+    /** Number of files. */
+    private int _files = 100;
+    /** Approximate size of each file, in bytes. */
+    private int _size = 4096;
+    /** Number of commits on master. */
+    private int _depth = 100;
+    /** Number of other branches. */
+    private int _branches = 4;
+    /** Source of file contents and changes. */
+    private Random _random = new Random(1);
+    /** Current lines of each file. */
+    private List<List<String>> _contents;
+
+    /** A generator with the default shape. */
+    RepoGenerator() {
+    }
+
+    /** Set the number of files to FILES and return this. */
+    RepoGenerator files(int files) {
+        _files = files;
+        return this;
+    }
+
+    /** Set the approximate size of each file to SIZE and return this. */
+    RepoGenerator size(int size) {
+        _size = size;
+        return this;
+    }
+
+    /** Set the number of commits on master to DEPTH and return this. */
+    RepoGenerator depth(int depth) {
+        _depth = depth;
+        return this;
+    }
+
+    /** Set the number of other branches to BRANCHES and return this. */
+    RepoGenerator branches(int branches) {
+        _branches = branches;
+        return this;
+    }
+
+    /** Seed the generator with SEED and return this. */
+    RepoGenerator seed(long seed) {
+        _random = new Random(seed);
+        return this;
+    }
+
+    /** Return the name of file I. */
+    static String fileName(int i) {
+        return String.format("file%05d.txt", i);
+    }
+
+    /** Return the name of branch K. */
+    static String branchName(int k) {
+        return "branch-" + k;
+    }
+
+    /** Create the repository in the current directory, which must not
+     *  already hold one, leaving master checked out. */
+    void generate() throws IOException {
+        if (new File(Repo.GITLET_DIR).exists()) {
+            throw new GitletException("A Gitlet version-control system "
+                + "already exists in the current directory.");
+        }
+        Main.run("init");
+        _contents = new ArrayList<List<String>>();
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < _files; i += 1) {
+            List<String> lines = new ArrayList<String>();
+            for (int n = 0; n < Math.max(1, _size / LINE_LENGTH); n += 1) {
+                lines.add(line());
+            }
+            _contents.add(lines);
+            names.add(fileName(i));
+            write(i);
+        }
+        add(names);
+        Main.run("commit", "generated commit 1");
+        int interval = Math.max(1, _depth / (_branches + 1));
+        int forked = 0;
+        for (int c = 2; c <= _depth; c += 1) {
+            if (forked < _branches && c % interval == 0) {
+                Main.run("branch", branchName(forked));
+                forked += 1;
+            }
+            change(Math.max(1, _files / 10), "generated commit " + c);
+        }
+        for (; forked < _branches; forked += 1) {
+            Main.run("branch", branchName(forked));
+        }
+        for (int k = 0; k < _branches; k += 1) {
+            Main.run("checkout", branchName(k));
+            for (int i = 0; i < _files; i += 1) {
+                _contents.set(i, readLines(i));
+            }
+            change(Math.max(1, _files / 10), branchName(k) + " commit 1");
+            change(Math.max(1, _files / 10), branchName(k) + " commit 2");
+        }
+        Main.run("checkout", "master");
+        for (int i = 0; i < _files; i += 1) {
+            _contents.set(i, readLines(i));
+        }
+    }
+
+    /** Change one line in each of COUNT random files and commit them
+     *  with MESSAGE. */
+    void change(int count, String message) throws IOException {
+        List<String> names = new ArrayList<String>();
+        for (int k = 0; k < count; k += 1) {
+            int i = _random.nextInt(_files);
+            List<String> lines = _contents.get(i);
+            lines.set(_random.nextInt(lines.size()), line());
+            write(i);
+            if (!names.contains(fileName(i))) {
+                names.add(fileName(i));
+            }
+        }
+        add(names);
+        Main.run("commit", message);
+    }
+
+    /** Stage the files NAMES. */
+    private void add(List<String> names) throws IOException {
+        List<String> args = new ArrayList<String>();
+        args.add("add");
+        args.addAll(names);
+        Main.run(args.toArray(new String[0]));
+    }
+
+    /** Return a random line of text, with its newline. */
+    private String line() {
+        StringBuilder result = new StringBuilder(LINE_LENGTH);
+        for (int k = 1; k < LINE_LENGTH; k += 1) {
+            result.append((char) ('a' + _random.nextInt(26)));
+        }
+        return result.append('\n').toString();
+    }
+
+    /** Write the current lines of file I. */
+    private void write(int i) {
+        Utils.writeContents(new File(fileName(i)),
+            String.join("", _contents.get(i)));
+    }
+
+    /** Return the lines of file I as it is in the working directory. */
+    private List<String> readLines(int i) {
+        List<String> result = new ArrayList<String>();
+        for (String line : Utils.readContentsAsString(new File(fileName(i)))
+                 .split("(?<=\n)")) {
+            result.add(line);
+        }
+        return result;
+    }
+
+    /** Generate a repository shaped by the options ARGS. */
+    public static void main(String... args) throws IOException {
+        RepoGenerator generator = new RepoGenerator();
+        try {
+            for (int i = 0; i + 1 < args.length; i += 2) {
+                int value = Integer.parseInt(args[i + 1]);
+                switch (args[i]) {
+                case "--files":
+                    generator.files(value);
+                    break;
+                case "--size":
+                    generator.size(value);
+                    break;
+                case "--depth":
+                    generator.depth(value);
+                    break;
+                case "--branches":
+                    generator.branches(value);
+                    break;
+                case "--seed":
+                    generator.seed(value);
+                    break;
+                default:
+                    Main.errOperand();
+                }
+            }
+            if (args.length % 2 != 0) {
+                Main.errOperand();
+            }
+            generator.generate();
+        } catch (NumberFormatException excp) {
+            System.out.println("Incorrect operands.");
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/** An exclusive lock on a repository file, held through FileChannel.lock
+ *  so that it excludes other processes.  The operating system drops it
+ *  if the holder exits, however it exits, so a crashed command never
+ *  leaves a repository locked.  A process that outlives its commands,
+ *  as the daemon and the benchmarks do, must not keep what a failed
+ *  command still held, so Main.run ends every command with
+ *  releaseAll.
+ *  @author Laiming Huang
+ */
+class RepoLock implements AutoCloseable {
+
+    /** Locks held by this process. */
+    private static final Set<RepoLock> HELD = new HashSet<RepoLock>();
+
+    /** The channel the lock was taken on. */
+    private final FileChannel _channel;
+    /** The lock itself. */
+    private final FileLock _lock;
+
+    /** A held lock LOCK on CHANNEL. */
+    private RepoLock(FileChannel channel, FileLock lock) {
+        _channel = channel;
+        _lock = lock;
+        synchronized (HELD) {
+            HELD.add(this);
+        }
+    }
+
+    /** Return the lock on FILE, waiting until no other process holds
+     *  it.  FILE is created if need be. */
+    static RepoLock acquire(File file) {
+        FileChannel channel = open(file);
+        try {
+            return new RepoLock(channel, channel.lock());
+        } catch (IOException excp) {
+            close(channel);
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the lock on FILE, or null if another process holds it.
+     *  FILE is created if need be. */
+    static RepoLock tryAcquire(File file) {
+        FileChannel channel = open(file);
+        try {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                close(channel);
+                return null;
+            }
+            return new RepoLock(channel, lock);
+        } catch (IOException excp) {
+            close(channel);
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (HELD) {
+            if (!HELD.remove(this)) {
+                return;
+            }
+        }
+        try {
+            _lock.release();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            close(_channel);
+        }
+    }
+
+    /** Release every lock this process holds. */
+    static void releaseAll() {
+        List<RepoLock> held;
+        synchronized (HELD) {
+            held = new ArrayList<RepoLock>(HELD);
+        }
+        for (RepoLock lock : held) {
+            lock.close();
+        }
+    }
+
+    /** Return a writable channel on FILE, creating it if need be. */
+    private static FileChannel open(File file) {
+        try {
+            return FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Close CHANNEL, ignoring errors. */
+    private static void close(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException excp) {
+            return;
+        }
+    }
+}
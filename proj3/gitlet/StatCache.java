@@ -0,0 +1,312 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Remembers, for each working file whose contents have been hashed or
+ *  written, its size, modification time and file key (inode) at that
+ *  moment, together with the blob id of its contents.  While all three
+ *  still match, the file is known to hold that blob and need not be
+ *  read again.
+ *
+ *  As in git, an entry is "racily clean" if the file was modified so
+ *  soon before its entry was recorded that a later edit in the same
+ *  clock tick could leave the modification time unchanged.  Such
+ *  entries are never trusted; the file is hashed again and the entry
+ *  refreshed, so it becomes trustworthy once it is old enough.
+ *
+ *  The entries live in their own file, apart from the index, as
+ *  fixed-size records sorted by the hash of the file's name: that hash,
+ *  size, modification time, a hash of the file key, the time the entry
+ *  was recorded and the blob id.  The file is memory-mapped and each
+ *  lookup binary-searches it, so only commands that look at working
+ *  files read it, and only the entries they ask for.  Changes are kept
+ *  in memory until save merges them into a new file.
+ *
+ *  A cache may be used by several hashing threads at once.
+ *  @author Laiming Huang
+ */
+class StatCache {
+
+    /** Modification times within this many milliseconds of the moment
+     *  an entry was recorded are treated as racy.  Generous enough for
+     *  file systems with two-second timestamps. */
+    static final long RACY_WINDOW = 2000;
+    /** Size of one record: name hash, size, modification time, file key
+     *  hash, time recorded, blob id. */
+    private static final int RECORD = 2 * ObjectStore.ID_BYTES + 4 * 8;
+
+    /** The file holding the entries. */
+    private final File _file;
+    /** Lock file held while the entries are saved. */
+    private final File _lock;
+    /** The records of the file, mapped, or null until first used. */
+    private ByteBuffer _records;
+    /** Entries added or changed since this cache was read, or null for
+     *  those forgotten, by name hash. */
+    private final HashMap<String, Entry> _changes =
+        new HashMap<String, Entry>();
+
+    /** A cache kept in FILE, which need not exist yet. */
+    StatCache(File file) {
+        _file = file;
+        _lock = new File(file.getPath() + ".lock");
+    }
+
+    /** Return the blob id of FILE's contents, reading and hashing the
+     *  file only if its cached entry cannot be trusted. */
+    String hash(File file) {
+        String id = cachedId(file);
+        if (id == null) {
+            Entry entry = stat(file);
+            id = ObjectStore.hash(file);
+            if (entry != null) {
+                entry.id = id;
+                put(file.getPath(), entry);
+            }
+        }
+        return id;
+    }
+
+    /** Store the contents of FILE in OBJECTS and return its id, noting
+     *  the file's state as of just before it was read. */
+    String store(File file, ObjectStore objects) {
+        Entry entry = stat(file);
+        String id = objects.putFile(file);
+        if (entry != null) {
+            entry.id = id;
+            put(file.getPath(), entry);
+        }
+        return id;
+    }
+
+    /** Return the blob id FILE is known to hold, or null if the file
+     *  has changed, has no entry, or its entry is racily clean. */
+    String cachedId(File file) {
+        Entry entry = get(file.getPath());
+        if (entry == null) {
+            return null;
+        }
+        Entry now = stat(file);
+        if (now == null || now.size != entry.size
+            || now.mtime != entry.mtime || now.key != entry.key
+            || entry.mtime >= entry.recorded - RACY_WINDOW) {
+            return null;
+        }
+        return entry.id;
+    }
+
+    /** Note that FILE now holds blob ID.  Call this only when the
+     *  contents are known, e.g. right after writing them. */
+    void record(File file, String id) {
+        Entry entry = stat(file);
+        if (entry != null) {
+            entry.id = id;
+            put(file.getPath(), entry);
+        }
+    }
+
+    /** Forget everything about NAME. */
+    synchronized void forget(String name) {
+        if (get(name) != null) {
+            _changes.put(nameHash(name), null);
+        }
+    }
+
+    /** Return true iff this cache changed since it was read. */
+    synchronized boolean changed() {
+        return !_changes.isEmpty();
+    }
+
+    /** Write this cache's changes to its file, merged with the entries
+     *  there now.  This is only a cache, so nothing is written if
+     *  another command is saving it at the same moment. */
+    synchronized void save() {
+        if (_changes.isEmpty()) {
+            return;
+        }
+        try (RepoLock lock = RepoLock.tryAcquire(_lock)) {
+            if (lock == null) {
+                return;
+            }
+            ByteBuffer records = map(_file);
+            TreeMap<String, Entry> changes =
+                new TreeMap<String, Entry>(_changes);
+            ByteBuffer out = ByteBuffer.allocate(
+                records.capacity() + changes.size() * RECORD);
+            byte[] name = new byte[ObjectStore.ID_BYTES];
+            int n = records.capacity() / RECORD;
+            for (int i = 0; i < n; i += 1) {
+                get(records, i * RECORD, name);
+                String hash = ObjectStore.idFromBytes(name);
+                while (!changes.isEmpty()
+                       && changes.firstKey().compareTo(hash) < 0) {
+                    Map.Entry<String, Entry> change =
+                        changes.pollFirstEntry();
+                    if (change.getValue() != null) {
+                        put(out, change.getKey(), change.getValue());
+                    }
+                }
+                if (changes.containsKey(hash)) {
+                    Entry change = changes.remove(hash);
+                    if (change != null) {
+                        put(out, hash, change);
+                    }
+                } else {
+                    out.put(records.duplicate().position(i * RECORD)
+                        .limit((i + 1) * RECORD));
+                }
+            }
+            for (Map.Entry<String, Entry> change : changes.entrySet()) {
+                if (change.getValue() != null) {
+                    put(out, change.getKey(), change.getValue());
+                }
+            }
+            WriteBatch.replace(_file,
+                Arrays.copyOf(out.array(), out.position()));
+        }
+        _changes.clear();
+        _records = null;
+    }
+
+    /** Return the entry for the file named NAME, or null if there is
+     *  none. */
+    private synchronized Entry get(String name) {
+        String hash = nameHash(name);
+        if (_changes.containsKey(hash)) {
+            return _changes.get(hash);
+        }
+        if (_records == null) {
+            _records = map(_file);
+        }
+        byte[] key = ObjectStore.idToBytes(hash);
+        byte[] probe = new byte[ObjectStore.ID_BYTES];
+        int lo = 0, hi = _records.capacity() / RECORD;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            get(_records, mid * RECORD, probe);
+            int cmp = Arrays.compareUnsigned(probe, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid;
+            } else {
+                ByteBuffer in = _records.duplicate();
+                in.position(mid * RECORD + ObjectStore.ID_BYTES);
+                Entry result = new Entry();
+                result.size = in.getLong();
+                result.mtime = in.getLong();
+                result.key = in.getLong();
+                result.recorded = in.getLong();
+                byte[] id = new byte[ObjectStore.ID_BYTES];
+                in.get(id);
+                result.id = ObjectStore.idFromBytes(id);
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /** Store ENTRY for the file named NAME. */
+    private synchronized void put(String name, Entry entry) {
+        _changes.put(nameHash(name), entry);
+    }
+
+    /** Append the record of ENTRY, for the name with hash HASH, to
+     *  OUT. */
+    private static void put(ByteBuffer out, String hash, Entry entry) {
+        out.put(ObjectStore.idToBytes(hash));
+        out.putLong(entry.size).putLong(entry.mtime).putLong(entry.key)
+            .putLong(entry.recorded);
+        out.put(ObjectStore.idToBytes(entry.id));
+    }
+
+    /** Fill BYTES from BUFFER, starting at index AT. */
+    private static void get(ByteBuffer buffer, int at, byte[] bytes) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(at);
+        view.get(bytes);
+    }
+
+    /** Return the whole records of FILE, mapped, or an empty buffer if
+     *  there is no FILE. */
+    private static ByteBuffer map(File file) {
+        if (!file.isFile()) {
+            return ByteBuffer.allocate(0);
+        }
+        try (FileChannel in = FileChannel.open(file.toPath())) {
+            return in.map(FileChannel.MapMode.READ_ONLY, 0,
+                in.size() / RECORD * RECORD);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the hash of the file named NAME, normalized so that
+     *  "./a.txt", as status lists it, and "a.txt", as add and checkout
+     *  name it, share one entry. */
+    private static String nameHash(String name) {
+        return ObjectStore.idFromBytes(
+            digest(Paths.get(name).normalize().toString()));
+    }
+
+    /** Return the SHA-1 digest of TEXT.  Names are hashed here rather
+     *  than by Utils.sha1, which counts the hashing of contents. */
+    private static byte[] digest(String text) {
+        try {
+            return MessageDigest.getInstance("SHA-1")
+                .digest(text.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return a fresh entry describing FILE, with no id, or null if the
+     *  file cannot be examined. */
+    private static Entry stat(File file) {
+        Trace.stat();
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(),
+                BasicFileAttributes.class);
+            if (!attrs.isRegularFile()) {
+                return null;
+            }
+            Entry result = new Entry();
+            result.size = attrs.size();
+            result.mtime = attrs.lastModifiedTime().toMillis();
+            result.key = ByteBuffer.wrap(
+                digest(String.valueOf(attrs.fileKey()))).getLong();
+            result.recorded = System.currentTimeMillis();
+            return result;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** What was known about one file. */
+    private static class Entry {
+        /** Size in bytes. */
+        private long size;
+        /** Modification time in milliseconds. */
+        private long mtime;
+        /** Hash of the file key (device and inode, where the system has
+         *  them). */
+        private long key;
+        /** When the entry was recorded. */
+        private long recorded;
+        /** Blob id of the contents. */
+        private String id;
+    }
+}
@@ -0,0 +1,248 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Opt-in tracing of one command at a time, for finding where a slow
+ *  command spends its time.  It is off unless the environment variable
+ *  GITLET_TRACE is set when the command starts (see Main.getenv; a
+ *  command run by the daemon sees the variable as it was set where the
+ *  command was typed).  While on, it times
+ *  named phases (spans, which may nest and may run on worker threads)
+ *  and counts bytes read and written, files stat'd, SHA-1 hashes and
+ *  objects deserialized.  When the command ends, it prints a summary
+ *  to the standard error or, if GITLET_TRACE names a file ending in
+ *  .json, writes the spans there in Chrome's trace event format, for
+ *  chrome://tracing or Perfetto, and overwrites any earlier trace.
+ *  While off, a span is one shared do-nothing object and a count is one
+ *  test of a flag.
+ *  @author Laiming Huang
+ */
+class Trace {
+
+    /** Environment variable that turns tracing on. */
+    static final String VARIABLE = "GITLET_TRACE";
+    /** Most spans kept for a Chrome trace; the rest are only summed. */
+    static final int MAX_EVENTS = 200000;
+
+    /** A timed phase, which ends when closed. */
+    static class Span implements AutoCloseable {
+
+        /** Name of the phase. */
+        private final String _name;
+        /** When it started, in System.nanoTime units. */
+        private final long _start;
+
+        /** A span named NAME starting at START. */
+        private Span(String name, long start) {
+            _name = name;
+            _start = start;
+        }
+
+        @Override
+        public void close() {
+            if (_name != null) {
+                record(_name, _start, System.nanoTime());
+            }
+        }
+    }
+
+    /** The span returned while tracing is off. */
+    private static final Span NONE = new Span(null, 0);
+
+    /** Bytes read from files. */
+    private static final AtomicLong READ = new AtomicLong();
+    /** Bytes written to files. */
+    private static final AtomicLong WRITTEN = new AtomicLong();
+    /** Files whose attributes were read. */
+    private static final AtomicLong STATS = new AtomicLong();
+    /** SHA-1 hashes computed. */
+    private static final AtomicLong SHA1S = new AtomicLong();
+    /** Objects deserialized. */
+    private static final AtomicLong DESERIALIZED = new AtomicLong();
+
+    /** True while the current command is traced. */
+    private static volatile boolean _on;
+    /** Where a Chrome trace goes, or null for a summary. */
+    private static File _file;
+    /** When the current command started. */
+    private static long _origin;
+    /** Number and total nanoseconds of the spans of each name, in the
+     *  order the names first ended. */
+    private static Map<String, long[]> _totals;
+    /** The names in _totals, in order. */
+    private static List<String> _names;
+    /** Spans kept for a Chrome trace, as JSON objects. */
+    private static List<String> _events;
+    /** Spans beyond MAX_EVENTS. */
+    private static long _dropped;
+
+    /** Start tracing a command if GITLET_TRACE is set, forgetting
+     *  anything traced before. */
+    static synchronized void start() {
+        String value = Main.getenv(VARIABLE);
+        _on = value != null && !value.isEmpty();
+        if (!_on) {
+            return;
+        }
+        _file = value.endsWith(".json") ? new File(value) : null;
+        _origin = System.nanoTime();
+        _totals = new HashMap<String, long[]>();
+        _names = new ArrayList<String>();
+        _events = new ArrayList<String>();
+        _dropped = 0;
+        for (AtomicLong count
+                 : new AtomicLong[] { READ, WRITTEN, STATS, SHA1S,
+                                      DESERIALIZED }) {
+            count.set(0);
+        }
+    }
+
+    /** Stop tracing and report on the command, called COMMAND. */
+    static void finish(String command) {
+        synchronized (Trace.class) {
+            if (!_on) {
+                return;
+            }
+            _on = false;
+        }
+        if (_file == null) {
+            System.err.print(summary(command));
+            return;
+        }
+        try {
+            Utils.writeContents(_file, chrome());
+        } catch (IllegalArgumentException excp) {
+            System.err.println("Cannot write trace to " + _file + ".");
+        }
+    }
+
+    /** Return a new span named NAME, which the caller must close. */
+    static Span span(String name) {
+        return _on ? new Span(name, System.nanoTime()) : NONE;
+    }
+
+    /** Note that N bytes were read. */
+    static void read(long n) {
+        if (_on) {
+            READ.addAndGet(n);
+        }
+    }
+
+    /** Note that N bytes were written. */
+    static void wrote(long n) {
+        if (_on) {
+            WRITTEN.addAndGet(n);
+        }
+    }
+
+    /** Note that a file's attributes were read. */
+    static void stat() {
+        if (_on) {
+            STATS.incrementAndGet();
+        }
+    }
+
+    /** Note that a SHA-1 hash was computed. */
+    static void sha1() {
+        if (_on) {
+            SHA1S.incrementAndGet();
+        }
+    }
+
+    /** Note that an object was deserialized. */
+    static void deserialized() {
+        if (_on) {
+            DESERIALIZED.incrementAndGet();
+        }
+    }
+
+    /** Record a span named NAME from START to END. */
+    private static synchronized void record(String name, long start,
+                                            long end) {
+        if (!_on) {
+            return;
+        }
+        long[] total = _totals.get(name);
+        if (total == null) {
+            total = new long[2];
+            _totals.put(name, total);
+            _names.add(name);
+        }
+        total[0] += 1;
+        total[1] += end - start;
+        if (_file == null) {
+            return;
+        } else if (_events.size() >= MAX_EVENTS) {
+            _dropped += 1;
+            return;
+        }
+        _events.add(String.format(Locale.ROOT, "{\"name\":%s,\"ph\":\"X\","
+            + "\"pid\":1,\"tid\":%d,\"ts\":%.3f,\"dur\":%.3f}", quote(name),
+            Thread.currentThread().getId(), (start - _origin) / 1e3,
+            (end - start) / 1e3));
+    }
+
+    /** Return the summary of the command COMMAND: each phase with its
+     *  number of spans and their total time, longest first, and then
+     *  the counts. */
+    private static String summary(String command) {
+        long elapsed = System.nanoTime() - _origin;
+        List<String> names = new ArrayList<String>(_names);
+        names.sort((a, b) -> Long.compare(_totals.get(b)[1],
+            _totals.get(a)[1]));
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("Trace of %s: %.3f ms%n", command,
+            elapsed / 1e6));
+        result.append(String.format("  %-24s %10s %12s%n", "phase",
+            "calls", "total ms"));
+        for (String name : names) {
+            long[] total = _totals.get(name);
+            result.append(String.format("  %-24s %10d %12.3f%n", name,
+                total[0], total[1] / 1e6));
+        }
+        result.append(String.format("  bytes read %d, bytes written %d, "
+            + "files stat'd %d, SHA-1 hashes %d, objects deserialized %d%n",
+            READ.get(), WRITTEN.get(), STATS.get(), SHA1S.get(),
+            DESERIALIZED.get()));
+        return result.toString();
+    }
+
+    /** Return the Chrome trace of the command: its spans, then the
+     *  counts as one counter event at its end. */
+    private static String chrome() {
+        StringBuilder result = new StringBuilder("{\"traceEvents\":[\n");
+        for (String event : _events) {
+            result.append(event).append(",\n");
+        }
+        result.append(String.format(Locale.ROOT, "{\"name\":\"io\","
+            + "\"ph\":\"C\",\"pid\":1,\"ts\":%.3f,\"args\":{\"bytes read\":%d,"
+            + "\"bytes written\":%d,\"files stat'd\":%d,"
+            + "\"SHA-1 hashes\":%d,\"objects deserialized\":%d}}\n",
+            (System.nanoTime() - _origin) / 1e3, READ.get(), WRITTEN.get(),
+            STATS.get(), SHA1S.get(), DESERIALIZED.get()));
+        result.append(String.format("],\"displayTimeUnit\":\"ms\","
+            + "\"otherData\":{\"dropped spans\":%d}}\n", _dropped));
+        return result.toString();
+    }
+
+    /** Return S as a JSON string. */
+    private static String quote(String s) {
+        StringBuilder result = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < ' ') {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.append('"').toString();
+    }
+}
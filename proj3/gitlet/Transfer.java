@@ -0,0 +1,111 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/** Copies history from one repository to another, as push and fetch
+ *  do.  The receiving side's stores answer which commits and objects it
+ *  already has; from that, the missing set is worked out once, before
+ *  anything is copied, so every object crosses exactly once however
+ *  many commits share it.  Blobs and tree nodes are copied in parallel;
+ *  commits are written last, parents first, so a commit that is
+ *  present always has its whole history and tree.
+ *  @author Laiming Huang
+ */
+class Transfer {
+
+    /** Commits of the sending side. */
+    private final CommitStore _fromCommits;
+    /** Objects of the sending side. */
+    private final ObjectStore _fromObjects;
+    /** Commits of the receiving side. */
+    private final CommitStore _toCommits;
+    /** Objects of the receiving side. */
+    private final ObjectStore _toObjects;
+
+    /** A transfer from the repository with FROMCOMMITS and FROMOBJECTS
+     *  to the one with TOCOMMITS and TOOBJECTS. */
+    Transfer(CommitStore fromCommits, ObjectStore fromObjects,
+             CommitStore toCommits, ObjectStore toObjects) {
+        _fromCommits = fromCommits;
+        _fromObjects = fromObjects;
+        _toCommits = toCommits;
+        _toObjects = toObjects;
+    }
+
+    /** Copy TIP and all of its history, through both parents, that the
+     *  receiving side lacks.  Return the number of commits copied. */
+    int copy(Commit tip) {
+        List<Commit> commits;
+        try (Trace.Span span = Trace.span("find missing commits")) {
+            commits = wanted(tip);
+        }
+        HashMap<String, Integer> nodes = new HashMap<String, Integer>();
+        LinkedHashSet<String> blobs = new LinkedHashSet<String>();
+        int height = -1;
+        for (Commit c : commits) {
+            height = Math.max(height, Tree.missing(_fromObjects, _toObjects,
+                c.getTree(), nodes, blobs));
+        }
+        send(new ArrayList<String>(blobs));
+        for (int h = 0; h <= height; h += 1) {
+            List<String> layer = new ArrayList<String>();
+            for (Map.Entry<String, Integer> node : nodes.entrySet()) {
+                if (node.getValue() == h) {
+                    layer.add(node.getKey());
+                }
+            }
+            send(layer);
+        }
+        for (Commit c : commits) {
+            _toCommits.put(c);
+        }
+        return commits.size();
+    }
+
+    /** Return the commits reachable from TIP that the receiving side
+     *  lacks, each after all of its parents.  The walk stops at every
+     *  commit the receiving side has. */
+    private List<Commit> wanted(Commit tip) {
+        List<Commit> result = new ArrayList<Commit>();
+        HashSet<String> seen = new HashSet<String>();
+        ArrayDeque<Commit> stack = new ArrayDeque<Commit>();
+        ArrayDeque<Boolean> expanded = new ArrayDeque<Boolean>();
+        stack.push(tip);
+        expanded.push(false);
+        while (!stack.isEmpty()) {
+            Commit c = stack.pop();
+            if (expanded.pop()) {
+                result.add(c);
+                continue;
+            }
+            if (!seen.add(c.toSha1()) || _toCommits.contains(c.toSha1())) {
+                continue;
+            }
+            stack.push(c);
+            expanded.push(true);
+            for (String parent : c.getParents()) {
+                if (!parent.isEmpty() && !seen.contains(parent)) {
+                    stack.push(_fromCommits.get(parent));
+                    expanded.push(false);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Copy the objects IDS to the receiving side, in parallel. */
+    private void send(List<String> ids) {
+        try (Trace.Span span = Trace.span("send objects")) {
+            Parallel.map(ids, id -> {
+                _fromObjects.copyTo(_toObjects, id);
+                return id;
+            });
+        }
+    }
+}
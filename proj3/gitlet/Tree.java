@@ -0,0 +1,392 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/** The set of files tracked by a commit, kept in the object store as a
+ *  persistent hash trie.  Small maps are a single leaf node listing
+ *  name/blob-id pairs; a map with more than LEAF_MAX entries becomes a
+ *  256-way node whose children split the names by hash code.  Every
+ *  node is stored under the SHA-1 of its encoding, so two commits
+ *  share every node their file maps have in common, and a commit that
+ *  changes K files writes only the O(K) nodes on the changed paths.
+ *
+ *  The shape of a trie depends only on its contents, so two trees are
+ *  equal exactly when their ids are.  The empty tree has id "" and is
+ *  never stored.
+ *  @author Laiming Huang
+ */
+class Tree {
+
+    /** Largest number of entries kept in a single leaf above the
+     *  bottom level. */
+    static final int LEAF_MAX = 64;
+    /** Id of the empty tree. */
+    static final String EMPTY = "";
+
+    /** Bits of the name's hash code consumed per level. */
+    private static final int BITS = 8;
+    /** Children per interior node. */
+    private static final int FANOUT = 1 << BITS;
+    /** Deepest level; its leaves never split. */
+    private static final int MAX_LEVEL = Integer.SIZE / BITS - 1;
+    /** Tag of a leaf node. */
+    private static final byte LEAF = 0;
+    /** Tag of an interior node. */
+    private static final byte NODE = 1;
+
+    /** Return the complete name-to-blob map of tree ID in STORE. */
+    static HashMap<String, String> read(ObjectStore store, String id) {
+        HashMap<String, String> result = new HashMap<String, String>();
+        collect(store, id, result);
+        return result;
+    }
+
+    /** Return the blob id of NAME in tree ID of STORE, or null if the
+     *  tree does not have it.  Reads one node per level. */
+    static String get(ObjectStore store, String id, String name) {
+        for (int level = 0; !id.equals(EMPTY); level += 1) {
+            Node node = Node.read(store, id);
+            if (node.isLeaf()) {
+                return node.entries.get(name);
+            }
+            id = node.children[slot(name, level)];
+            if (id == null) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /** Return the id of a tree in STORE holding exactly FILES. */
+    static String write(ObjectStore store, Map<String, String> files) {
+        return build(store, new TreeMap<String, String>(files), 0).id;
+    }
+
+    /** Return the id of the tree that results from applying CHANGES to
+     *  tree ID in STORE.  A null value in CHANGES removes that name.
+     *  Untouched subtrees are shared with ID rather than rewritten. */
+    static String update(ObjectStore store, String id,
+                         Map<String, String> changes) {
+        if (changes.isEmpty()) {
+            return id;
+        }
+        return update(store, id, changes, 0).id;
+    }
+
+    /** Return the differences between trees FROM and TO in STORE, as a
+     *  map from each name whose blob differs to the pair {blob in FROM,
+     *  blob in TO}, either of which may be null.  Subtrees with equal
+     *  ids are skipped without being read, so the cost is proportional
+     *  to the size of the difference rather than of the trees. */
+    static HashMap<String, String[]> diff(ObjectStore store, String from,
+                                          String to) {
+        HashMap<String, String[]> result = new HashMap<String, String[]>();
+        diff(store, from, to, result);
+        return result;
+    }
+
+    /** Add the differences between subtrees FROM and TO of STORE, which
+     *  sit at the same level, to RESULT. */
+    private static void diff(ObjectStore store, String from, String to,
+                             Map<String, String[]> result) {
+        if (from.equals(to)) {
+            return;
+        }
+        if (!from.equals(EMPTY) && !to.equals(EMPTY)) {
+            Node a = Node.read(store, from);
+            Node b = Node.read(store, to);
+            if (!a.isLeaf() && !b.isLeaf()) {
+                for (int i = 0; i < FANOUT; i += 1) {
+                    diff(store,
+                        a.children[i] == null ? EMPTY : a.children[i],
+                        b.children[i] == null ? EMPTY : b.children[i],
+                        result);
+                }
+                return;
+            }
+        }
+        HashMap<String, String> a = read(store, from);
+        HashMap<String, String> b = read(store, to);
+        for (Map.Entry<String, String> entry : a.entrySet()) {
+            String other = b.get(entry.getKey());
+            if (!entry.getValue().equals(other)) {
+                result.put(entry.getKey(),
+                    new String[] {entry.getValue(), other});
+            }
+        }
+        for (Map.Entry<String, String> entry : b.entrySet()) {
+            if (!a.containsKey(entry.getKey())) {
+                result.put(entry.getKey(),
+                    new String[] {null, entry.getValue()});
+            }
+        }
+    }
+
+    /** Find the parts of tree ID in SRC that DST lacks, skipping any
+     *  node DST already has (a node that is present is complete) and
+     *  any node already in NODES.  Each missing node is added to NODES
+     *  with its height, 0 for a node with no missing children and
+     *  otherwise one more than its tallest missing child, so that
+     *  writing nodes in order of height writes children first.  Each
+     *  missing blob is added to BLOBS.  Returns the height of ID, or -1
+     *  if DST has it. */
+    static int missing(ObjectStore src, ObjectStore dst, String id,
+                       Map<String, Integer> nodes, Set<String> blobs) {
+        if (id.equals(EMPTY) || dst.contains(id)) {
+            return -1;
+        } else if (nodes.containsKey(id)) {
+            return nodes.get(id);
+        }
+        Node node = Node.read(src, id);
+        int height = 0;
+        if (node.isLeaf()) {
+            for (String blob : node.entries.values()) {
+                if (!blobs.contains(blob) && !dst.contains(blob)) {
+                    blobs.add(blob);
+                }
+            }
+        } else {
+            for (String child : node.children) {
+                if (child != null) {
+                    height = Math.max(height,
+                        1 + missing(src, dst, child, nodes, blobs));
+                }
+            }
+        }
+        nodes.put(id, height);
+        return height;
+    }
+
+    /** Add every entry of tree ID in STORE to RESULT. */
+    private static void collect(ObjectStore store, String id,
+                                Map<String, String> result) {
+        if (id.equals(EMPTY)) {
+            return;
+        }
+        Node node = Node.read(store, id);
+        if (node.isLeaf()) {
+            result.putAll(node.entries);
+        } else {
+            for (String child : node.children) {
+                if (child != null) {
+                    collect(store, child, result);
+                }
+            }
+        }
+    }
+
+    /** Return the child slot of NAME at LEVEL. */
+    private static int slot(String name, int level) {
+        return (name.hashCode() >>> (BITS * level)) & (FANOUT - 1);
+    }
+
+    /** Write the canonical subtree for ENTRIES at LEVEL into STORE. */
+    private static Ref build(ObjectStore store, TreeMap<String, String> entries,
+                             int level) {
+        if (entries.isEmpty()) {
+            return new Ref(EMPTY, 0);
+        }
+        if (entries.size() <= LEAF_MAX || level == MAX_LEVEL) {
+            return new Node(entries).write(store);
+        }
+        Node node = new Node(new String[FANOUT], new int[FANOUT]);
+        TreeMap<String, String>[] parts = split(entries, level);
+        for (int i = 0; i < FANOUT; i += 1) {
+            if (parts[i] != null) {
+                Ref child = build(store, parts[i], level + 1);
+                node.children[i] = child.id;
+                node.counts[i] = child.count;
+            }
+        }
+        return node.write(store);
+    }
+
+    /** Apply CHANGES to subtree ID at LEVEL of STORE. */
+    private static Ref update(ObjectStore store, String id,
+                              Map<String, String> changes, int level) {
+        if (id.equals(EMPTY)) {
+            TreeMap<String, String> entries = new TreeMap<String, String>();
+            apply(entries, changes);
+            return build(store, entries, level);
+        }
+        Node node = Node.read(store, id);
+        if (node.isLeaf()) {
+            apply(node.entries, changes);
+            return build(store, node.entries, level);
+        }
+        TreeMap<String, String>[] parts =
+            split(new TreeMap<String, String>(changes), level);
+        int total = 0;
+        for (int i = 0; i < FANOUT; i += 1) {
+            if (parts[i] != null) {
+                String child =
+                    node.children[i] == null ? EMPTY : node.children[i];
+                Ref updated = update(store, child, parts[i], level + 1);
+                node.children[i] =
+                    updated.id.equals(EMPTY) ? null : updated.id;
+                node.counts[i] = updated.count;
+            }
+            total += node.counts[i];
+        }
+        if (total <= LEAF_MAX) {
+            TreeMap<String, String> entries = new TreeMap<String, String>();
+            for (String child : node.children) {
+                if (child != null) {
+                    collect(store, child, entries);
+                }
+            }
+            return build(store, entries, level);
+        }
+        return node.write(store);
+    }
+
+    /** Apply CHANGES to ENTRIES, removing names mapped to null. */
+    private static void apply(Map<String, String> entries,
+                              Map<String, String> changes) {
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                entries.remove(change.getKey());
+            } else {
+                entries.put(change.getKey(), change.getValue());
+            }
+        }
+    }
+
+    /** Partition ENTRIES by their slot at LEVEL.  Empty parts are
+     *  null. */
+    @SuppressWarnings("unchecked")
+    private static TreeMap<String, String>[] split(
+        TreeMap<String, String> entries, int level) {
+        TreeMap<String, String>[] parts = new TreeMap[FANOUT];
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            int i = slot(entry.getKey(), level);
+            if (parts[i] == null) {
+                parts[i] = new TreeMap<String, String>();
+            }
+            parts[i].put(entry.getKey(), entry.getValue());
+        }
+        return parts;
+    }
+
+    /** A reference to a stored subtree. */
+    private static class Ref {
+        /** Id of the subtree. */
+        private final String id;
+        /** Number of entries in the subtree. */
+        private final int count;
+
+        /** A reference to subtree ID holding COUNT entries. */
+        Ref(String id, int count) {
+            this.id = id;
+            this.count = count;
+        }
+    }
+
+    /** One decoded trie node.  A leaf is encoded as its tag, its entry
+     *  count, and then each name (modified UTF-8) followed by the 20
+     *  raw bytes of its blob id, in name order.  An interior node is
+     *  its tag, its number of children, and then for each child its
+     *  slot, entry count and 20-byte id. */
+    private static class Node {
+        /** Entries of a leaf, or null. */
+        private final TreeMap<String, String> entries;
+        /** Child ids of an interior node by slot, or null. */
+        private final String[] children;
+        /** Entry counts of the children of an interior node. */
+        private final int[] counts;
+
+        /** A leaf holding ENTRIES. */
+        Node(TreeMap<String, String> entries) {
+            this.entries = entries;
+            this.children = null;
+            this.counts = null;
+        }
+
+        /** An interior node with CHILDREN holding COUNTS entries. */
+        Node(String[] children, int[] counts) {
+            this.entries = null;
+            this.children = children;
+            this.counts = counts;
+        }
+
+        /** Return true iff this is a leaf. */
+        boolean isLeaf() {
+            return entries != null;
+        }
+
+        /** Read node ID from STORE. */
+        static Node read(ObjectStore store, String id) {
+            try {
+                DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(store.read(id)));
+                byte[] raw = new byte[ObjectStore.ID_BYTES];
+                if (in.readByte() == LEAF) {
+                    TreeMap<String, String> entries =
+                        new TreeMap<String, String>();
+                    for (int n = in.readInt(); n > 0; n -= 1) {
+                        String name = in.readUTF();
+                        in.readFully(raw);
+                        entries.put(name, ObjectStore.idFromBytes(raw));
+                    }
+                    return new Node(entries);
+                }
+                String[] children = new String[FANOUT];
+                int[] counts = new int[FANOUT];
+                for (int n = in.readShort(); n > 0; n -= 1) {
+                    int i = in.readUnsignedByte();
+                    counts[i] = in.readInt();
+                    in.readFully(raw);
+                    children[i] = ObjectStore.idFromBytes(raw);
+                }
+                return new Node(children, counts);
+            } catch (IOException excp) {
+                throw Utils.error("Corrupt tree %s.", id);
+            }
+        }
+
+        /** Write this node to STORE, returning a reference to it. */
+        Ref write(ObjectStore store) {
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                int count = 0;
+                if (isLeaf()) {
+                    out.writeByte(LEAF);
+                    out.writeInt(entries.size());
+                    for (Map.Entry<String, String> e : entries.entrySet()) {
+                        out.writeUTF(e.getKey());
+                        out.write(ObjectStore.idToBytes(e.getValue()));
+                    }
+                    count = entries.size();
+                } else {
+                    int n = 0;
+                    for (String child : children) {
+                        n += child == null ? 0 : 1;
+                    }
+                    out.writeByte(NODE);
+                    out.writeShort(n);
+                    for (int i = 0; i < FANOUT; i += 1) {
+                        if (children[i] != null) {
+                            out.writeByte(i);
+                            out.writeInt(counts[i]);
+                            out.write(ObjectStore.idToBytes(children[i]));
+                            count += counts[i];
+                        }
+                    }
+                }
+                out.close();
+                return new Ref(store.put(bytes.toByteArray()), count);
+            } catch (IOException excp) {
+                throw Utils.error("Internal error writing tree.");
+            }
+        }
+    }
+}
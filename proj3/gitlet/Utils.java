@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -48,7 +49,8 @@ class Utils {
      * be any mixture of byte arrays and Strings.
      */
     static String sha1(Object... vals) {
-        try {
+        Trace.sha1();
+        try (Trace.Span span = Trace.span("sha1")) {
             MessageDigest md = MessageDigest.getInstance("SHA-1");
             for (Object val : vals) {
                 if (val instanceof byte[]) {
@@ -145,7 +147,9 @@ class Utils {
             throw new IllegalArgumentException("must be a normal file");
         }
         try {
-            return Files.readAllBytes(file.toPath());
+            byte[] result = Files.readAllBytes(file.toPath());
+            Trace.read(result.length);
+            return result;
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -175,11 +179,10 @@ class Utils {
             BufferedOutputStream str =
                 new BufferedOutputStream(Files.newOutputStream(file.toPath()));
             for (Object obj : contents) {
-                if (obj instanceof byte[]) {
-                    str.write((byte[]) obj);
-                } else {
-                    str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
-                }
+                byte[] bytes = obj instanceof byte[] ? (byte[]) obj
+                    : ((String) obj).getBytes(StandardCharsets.UTF_8);
+                str.write(bytes);
+                Trace.wrote(bytes.length);
             }
             str.close();
         } catch (IOException | ClassCastException excp) {
@@ -193,7 +196,9 @@ class Utils {
      */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
-        try {
+        Trace.read(file.length());
+        Trace.deserialized();
+        try (Trace.Span span = Trace.span("deserialize")) {
             ObjectInputStream in =
                 new ObjectInputStream(new FileInputStream(file));
             T result = expectedClass.cast(in.readObject());
@@ -276,6 +281,23 @@ class Utils {
         }
     }
 
+    /**
+     * Return the object serialized in CONTENTS, casting it to
+     * EXPECTEDCLASS.  Throws IllegalArgumentException in case of problems.
+     */
+    static <T extends Serializable> T deserialize(byte[] contents,
+                                                  Class<T> expectedClass) {
+        Trace.deserialized();
+        try (Trace.Span span = Trace.span("deserialize");
+             ObjectInputStream in =
+                 new ObjectInputStream(new ByteArrayInputStream(contents))) {
+            return expectedClass.cast(in.readObject());
+        } catch (IOException | ClassCastException
+            | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
 
 
     /* MESSAGES AND ERROR REPORTING */
@@ -0,0 +1,214 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A set of changes to a repository's small mutable files (the index,
+ *  HEAD, remotes and branches) applied all together.  Commit writes
+ *  every change into one journal file, flushes that file to disk, the
+ *  only flush the batch needs, and renames it into place; only then is
+ *  each target replaced, by renaming a fresh copy over it, and once all
+ *  are replaced the journal is deleted.  The journal therefore only
+ *  ever holds the one batch being applied: a crash before its rename
+ *  leaves the old files untouched, and a crash after it leaves the
+ *  journal behind for recover to finish.  Each rename replaces a whole
+ *  file, so no file is ever seen half written.
+ *  @author Laiming Huang
+ */
+class WriteBatch {
+
+    /** Name of the journal, in the repository directory. */
+    static final String JOURNAL = "batch";
+    /** Lock file held while the journal is written or replayed. */
+    static final String JOURNAL_LOCK = "batch.lock";
+
+    /** Repository directory, holding the journal, the targets and the
+     *  temporary files. */
+    private final File _dir;
+    /** New contents by target, or null for a target to delete, in the
+     *  order given. */
+    private final LinkedHashMap<File, byte[]> _changes =
+        new LinkedHashMap<File, byte[]>();
+
+    /** A batch of changes to files in the repository directory DIR. */
+    WriteBatch(File dir) {
+        _dir = dir;
+    }
+
+    /** Arrange for FILE to hold CONTENTS. */
+    void put(File file, byte[] contents) {
+        _changes.put(file, contents);
+    }
+
+    /** Arrange for FILE to be deleted. */
+    void delete(File file) {
+        _changes.put(file, null);
+    }
+
+    /** Make every change in this batch durable, and then make it. */
+    void commit() {
+        try (RepoLock lock = RepoLock.acquire(new File(_dir, JOURNAL_LOCK))) {
+            LinkedHashMap<String, byte[]> changes =
+                new LinkedHashMap<String, byte[]>();
+            for (Map.Entry<File, byte[]> change : _changes.entrySet()) {
+                changes.put(name(change.getKey()), change.getValue());
+            }
+            writeJournal(changes);
+            replay(_dir);
+        }
+        _changes.clear();
+    }
+
+    /** Drop every change in this batch, leaving the targets untouched. */
+    void abort() {
+        _changes.clear();
+    }
+
+    /** Finish the batch a crash left half applied in the repository
+     *  directory DIR, if any.  With no journal there, this is a single
+     *  check for the file. */
+    static void recover(File dir) {
+        if (!new File(dir, JOURNAL).isFile()) {
+            return;
+        }
+        try (RepoLock lock = RepoLock.acquire(new File(dir, JOURNAL_LOCK))) {
+            if (new File(dir, JOURNAL).isFile()) {
+                replay(dir);
+            }
+        }
+    }
+
+    /** Replace FILE by CONTENTS durably and all at once: write them to a
+     *  temporary file beside it, flush that, rename it over FILE, and
+     *  flush the directory. */
+    static void replace(File file, byte[] contents) {
+        File dir = file.getAbsoluteFile().getParentFile();
+        try {
+            File temp = File.createTempFile("tmp-", null, dir);
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write(contents);
+                Trace.wrote(contents.length);
+                out.getFD().sync();
+            }
+            Files.move(temp.toPath(), file.toPath(),
+                StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        sync(dir);
+    }
+
+    /** Flush FILES, which may include directories, to disk. */
+    static void syncAll(Collection<File> files) {
+        for (File file : files) {
+            sync(file);
+        }
+    }
+
+    /** Flush FILE, which may be a directory, to disk.  Systems that
+     *  cannot flush a directory are allowed to skip it. */
+    static void sync(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                 StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            if (!file.isDirectory()) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Return the name of FILE relative to the repository directory. */
+    private String name(File file) {
+        return _dir.getAbsoluteFile().toPath()
+            .relativize(file.getAbsoluteFile().toPath()).toString();
+    }
+
+    /** Make CHANGES, by target name, the journal.  The journal is a
+     *  count, then the name of each target, a flag telling whether it
+     *  is kept, and its length and contents if so. */
+    private void writeJournal(LinkedHashMap<String, byte[]> changes) {
+        try {
+            File temp = File.createTempFile("tmp-", null, _dir);
+            try (FileOutputStream file = new FileOutputStream(temp);
+                 DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(file))) {
+                out.writeInt(changes.size());
+                for (Map.Entry<String, byte[]> entry : changes.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeBoolean(entry.getValue() != null);
+                    if (entry.getValue() != null) {
+                        out.writeInt(entry.getValue().length);
+                        out.write(entry.getValue());
+                    }
+                }
+                out.flush();
+                Trace.wrote(out.size());
+                file.getFD().sync();
+            }
+            Files.move(temp.toPath(), new File(_dir, JOURNAL).toPath(),
+                StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        sync(_dir);
+    }
+
+    /** Apply every change in the journal in DIR, then delete it.  The
+     *  journal lock must be held. */
+    private static void replay(File dir) {
+        File journal = new File(dir, JOURNAL);
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(journal)))) {
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                File target = new File(dir, in.readUTF());
+                byte[] contents = null;
+                if (in.readBoolean()) {
+                    contents = new byte[in.readInt()];
+                    in.readFully(contents);
+                }
+                apply(dir, target, contents);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        journal.delete();
+    }
+
+    /** Make TARGET hold CONTENTS, or delete it if CONTENTS is null,
+     *  using a temporary file in DIR. */
+    private static void apply(File dir, File target, byte[] contents) {
+        if (contents == null) {
+            target.delete();
+            return;
+        }
+        try {
+            File temp = File.createTempFile("tmp-", null, dir);
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write(contents);
+                Trace.wrote(contents.length);
+            }
+            target.getAbsoluteFile().getParentFile().mkdirs();
+            Files.move(temp.toPath(), target.toPath(),
+                StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}